@@ -0,0 +1,42 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import com.segment.analytics.Traits;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DiffTraitsBenchmark {
+
+  @Param({"10", "50", "200"})
+  public int traitCount;
+
+  private Traits current;
+  private Traits unchanged;
+  private Traits changed;
+
+  @Setup
+  public void setUp() {
+    current = Fixtures.traits(traitCount, 0);
+    unchanged = Fixtures.traits(traitCount, 0);
+    changed = Fixtures.traits(traitCount, 1);
+  }
+
+  @Benchmark
+  public Traits diffUnchanged() {
+    return TraitDiffer.diff(current, unchanged, new Traits());
+  }
+
+  @Benchmark
+  public Traits diffHalfChanged() {
+    return TraitDiffer.diff(current, changed, new Traits());
+  }
+}
@@ -0,0 +1,46 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import com.segment.analytics.integrations.IdentifyPayload;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IdentifyBenchmark {
+
+  @Param({"10", "50", "200"})
+  public int traitCount;
+
+  @Param({"false", "true"})
+  public boolean traitDiffing;
+
+  private AppboyIntegration integration;
+  private IdentifyPayload[] payloads;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    integration = Fixtures.integration(new BenchmarkAppboy(), Fixtures.options()
+        .enableTraitDiffing(traitDiffing)
+        .build());
+    // Alternating between two variants means every diffing identify has changes to send.
+    payloads = new IdentifyPayload[] {
+        Fixtures.identify(Fixtures.traits(traitCount, 0)),
+        Fixtures.identify(Fixtures.traits(traitCount, 1))
+    };
+  }
+
+  @Benchmark
+  public void identify() {
+    integration.identify(payloads[next]);
+    next ^= 1;
+  }
+}
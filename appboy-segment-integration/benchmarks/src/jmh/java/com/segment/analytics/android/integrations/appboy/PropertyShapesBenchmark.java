@@ -0,0 +1,41 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import com.appboy.models.outgoing.AppboyProperties;
+import com.segment.analytics.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Converting repeated "Product Viewed" properties through a remembered shape and generically. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PropertyShapesBenchmark {
+
+  private PropertyShapes shapes;
+  private Properties properties;
+
+  @Setup
+  public void setUp() {
+    shapes = new PropertyShapes(null, new AppboyIntegrationMetrics());
+    properties = Fixtures.productViewedProperties();
+    shapes.write("Product Viewed", properties, new AppboyEventProperties());
+  }
+
+  @Benchmark
+  public AppboyProperties shaped() {
+    AppboyEventProperties shaped = new AppboyEventProperties();
+    shapes.write("Product Viewed", properties, shaped);
+    return shaped.get();
+  }
+
+  @Benchmark
+  public AppboyProperties generic() {
+    return new AppboyProperties(properties.toJsonObject());
+  }
+}
@@ -0,0 +1,47 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import com.segment.analytics.Properties;
+import com.segment.analytics.integrations.TrackPayload;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrackBenchmark {
+
+  private AppboyIntegration integration;
+  private TrackPayload plain;
+  private TrackPayload withProperties;
+  private TrackPayload withRevenueAndProducts;
+
+  @Setup
+  public void setUp() {
+    integration = Fixtures.integration(new BenchmarkAppboy(),
+        Fixtures.options().build());
+    plain = Fixtures.track("Application Opened", new Properties());
+    withProperties = Fixtures.track("Product Viewed", Fixtures.productViewedProperties());
+    withRevenueAndProducts = Fixtures.track("Order Completed", Fixtures.orderCompletedProperties());
+  }
+
+  @Benchmark
+  public void trackPlain() {
+    integration.track(plain);
+  }
+
+  @Benchmark
+  public void trackWithProperties() {
+    integration.track(withProperties);
+  }
+
+  @Benchmark
+  public void trackWithRevenueAndProducts() {
+    integration.track(withRevenueAndProducts);
+  }
+}
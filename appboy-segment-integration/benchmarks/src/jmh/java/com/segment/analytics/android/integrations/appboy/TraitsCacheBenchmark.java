@@ -0,0 +1,49 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import com.segment.analytics.Traits;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TraitsCacheBenchmark {
+
+  @Param({"10", "50", "200"})
+  public int traitCount;
+
+  private InMemoryContext context;
+  private PreferencesTraitsCache cache;
+  private Traits traits;
+
+  @Setup
+  public void setUp() {
+    context = new InMemoryContext();
+    cache = new PreferencesTraitsCache(context);
+    traits = Fixtures.traits(traitCount, 0);
+    cache.save(traits);
+  }
+
+  @Benchmark
+  public void save() {
+    cache.save(traits);
+  }
+
+  @Benchmark
+  public Traits load() {
+    return cache.load();
+  }
+
+  /** The read and parse the integration now does once, on the prefetch thread. */
+  @Benchmark
+  public Traits coldLoad() {
+    return new PreferencesTraitsCache(context).load();
+  }
+}
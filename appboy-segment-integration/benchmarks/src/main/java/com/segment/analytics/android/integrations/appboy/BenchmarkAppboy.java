@@ -0,0 +1,270 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.app.Activity;
+import android.content.Intent;
+import com.appboy.AppboyUser;
+import com.appboy.IAppboy;
+import com.appboy.IAppboyImageLoader;
+import com.appboy.events.BrazeNetworkFailureEvent;
+import com.appboy.events.ContentCardsUpdatedEvent;
+import com.appboy.events.FeedUpdatedEvent;
+import com.appboy.events.IEventSubscriber;
+import com.appboy.events.IValueCallback;
+import com.appboy.events.InAppMessageEvent;
+import com.appboy.events.SessionStateChangedEvent;
+import com.appboy.models.IInAppMessage;
+import com.appboy.models.cards.Card;
+import com.appboy.models.outgoing.AppboyProperties;
+import java.math.BigDecimal;
+import java.util.List;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.implementation.StubMethod;
+import org.json.JSONObject;
+import org.objenesis.ObjenesisStd;
+
+import static net.bytebuddy.matcher.ElementMatchers.isDeclaredBy;
+
+/**
+ * {@link IAppboy} stand-in that does no work beyond counting calls, so results reflect the cost of
+ * the integration alone.
+ */
+public class BenchmarkAppboy implements IAppboy {
+
+  private static final Class<? extends AppboyUser> USER_STAND_IN_TYPE = new ByteBuddy()
+      .subclass(AppboyUser.class)
+      .method(isDeclaredBy(AppboyUser.class))
+      .intercept(StubMethod.INSTANCE)
+      .make()
+      .load(AppboyUser.class.getClassLoader())
+      .getLoaded();
+
+  /**
+   * {@link AppboyUser} has no public constructor and a mock would record every call, so the
+   * current user is a generated subclass whose methods do nothing, created without running any
+   * constructor.
+   */
+  private final AppboyUser currentUser = new ObjenesisStd().newInstance(USER_STAND_IN_TYPE);
+
+  public int calls;
+
+  @Override
+  public void openSession(Activity activity) {
+    calls++;
+  }
+
+  @Override
+  public void closeSession(Activity activity) {
+    calls++;
+  }
+
+  @Override
+  public void logCustomEvent(String s) {
+    calls++;
+  }
+
+  @Override
+  public void logCustomEvent(String s, AppboyProperties appboyProperties) {
+    calls++;
+  }
+
+  @Override
+  public void logPurchase(String s, String s1, BigDecimal bigDecimal) {
+    calls++;
+  }
+
+  @Override
+  public void logPurchase(String s, String s1, BigDecimal bigDecimal,
+      AppboyProperties appboyProperties) {
+    calls++;
+  }
+
+  @Override
+  public void logPurchase(String s, String s1, BigDecimal bigDecimal, int i) {
+    calls++;
+  }
+
+  @Override
+  public void logPurchase(String s, String s1, BigDecimal bigDecimal, int i,
+      AppboyProperties appboyProperties) {
+    calls++;
+  }
+
+  @Override
+  public void logPushNotificationOpened(String s) {
+
+  }
+
+  @Override
+  public void logPushNotificationOpened(Intent intent) {
+
+  }
+
+  @Override
+  public void logPushNotificationActionClicked(String s, String s1, String s2) {
+
+  }
+
+  @Override
+  public void logPushStoryPageClicked(String s, String s1) {
+
+  }
+
+  @Override
+  public void logContentCardsDisplayed() {
+
+  }
+
+  @Override
+  public void logFeedDisplayed() {
+
+  }
+
+  @Override
+  public void requestContentCardsRefresh(boolean b) {
+    calls++;
+  }
+
+  @Override
+  public void requestFeedRefresh() {
+    calls++;
+  }
+
+  @Override
+  public void requestFeedRefreshFromCache() {
+    calls++;
+  }
+
+  @Override
+  public void requestImmediateDataFlush() {
+    calls++;
+  }
+
+  @Override
+  public void subscribeToContentCardsUpdates(
+      IEventSubscriber<ContentCardsUpdatedEvent> iEventSubscriber) {
+
+  }
+
+  @Override
+  public void subscribeToFeedUpdates(IEventSubscriber<FeedUpdatedEvent> iEventSubscriber) {
+
+  }
+
+  @Override
+  public void subscribeToNewInAppMessages(IEventSubscriber<InAppMessageEvent> iEventSubscriber) {
+
+  }
+
+  @Override
+  public void subscribeToSessionUpdates(
+      IEventSubscriber<SessionStateChangedEvent> iEventSubscriber) {
+
+  }
+
+  @Override
+  public void subscribeToNetworkFailures(
+      IEventSubscriber<BrazeNetworkFailureEvent> iEventSubscriber) {
+
+  }
+
+  @Override
+  public <T> void removeSingleSubscription(IEventSubscriber<T> iEventSubscriber, Class<T> aClass) {
+
+  }
+
+  @Override
+  public void changeUser(String s) {
+    calls++;
+  }
+
+  @Override
+  public AppboyUser getCurrentUser() {
+    calls++;
+    return currentUser;
+  }
+
+  @Override
+  public void getCurrentUser(IValueCallback<AppboyUser> iValueCallback) {
+    iValueCallback.onSuccess(currentUser);
+  }
+
+  @Override
+  public void registerAppboyPushMessages(String s) {
+    calls++;
+  }
+
+  @Override
+  public String getAppboyPushMessageRegistrationId() {
+    return null;
+  }
+
+  @Override
+  public String getInstallTrackingId() {
+    return null;
+  }
+
+  @Override
+  public IAppboyImageLoader getAppboyImageLoader() {
+    return null;
+  }
+
+  @Override
+  public void setAppboyImageLoader(IAppboyImageLoader iAppboyImageLoader) {
+
+  }
+
+  @Override
+  public int getContentCardCount() {
+    return 0;
+  }
+
+  @Override
+  public int getContentCardUnviewedCount() {
+    return 0;
+  }
+
+  @Override
+  public long getContentCardsLastUpdatedInSecondsFromEpoch() {
+    return 0;
+  }
+
+  @Override
+  public List<Card> getCachedContentCards() {
+    return null;
+  }
+
+  @Override
+  public void setGoogleAdvertisingId(String s, boolean b) {
+
+  }
+
+  @Override
+  public IInAppMessage deserializeInAppMessageString(String s) {
+    return null;
+  }
+
+  @Override
+  public Card deserializeContentCard(String s) {
+    return null;
+  }
+
+  @Override
+  public Card deserializeContentCard(JSONObject jsonObject) {
+    return null;
+  }
+
+  @Override
+  public void requestGeofences(double v, double v1) {
+
+  }
+
+  @Override
+  public void logFeedCardImpression(String s) {
+
+  }
+
+  @Override
+  public void logFeedCardClick(String s) {
+
+  }
+}
@@ -0,0 +1,103 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import com.appboy.AppboyUser;
+import com.appboy.IAppboy;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.implementation.InvocationHandlerAdapter;
+import org.objenesis.ObjenesisStd;
+
+import static net.bytebuddy.matcher.ElementMatchers.isDeclaredBy;
+
+/**
+ * {@link IAppboy} stand-in for replays. Like {@link BenchmarkAppboy} it does no work, but it counts
+ * every SDK call by method name, including calls on the current user, and the time spent in them.
+ */
+public final class CountingAppboy {
+
+  private final Map<String, long[]> calls = new TreeMap<>();
+  private final IAppboy appboy;
+
+  public CountingAppboy() {
+    InvocationHandler counting = new InvocationHandler() {
+      private final AppboyUser user = createUser(this);
+
+      @Override
+      public Object invoke(Object target, Method method, Object[] args) {
+        long start = System.nanoTime();
+        String name = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+        Object result = "getCurrentUser".equals(method.getName()) ? user
+            : defaultValue(method.getReturnType());
+        long[] stats = calls.get(name);
+        if (stats == null) {
+          stats = new long[2];
+          calls.put(name, stats);
+        }
+        stats[0]++;
+        stats[1] += System.nanoTime() - start;
+        return result;
+      }
+    };
+    appboy = (IAppboy) Proxy.newProxyInstance(IAppboy.class.getClassLoader(),
+        new Class<?>[] {IAppboy.class}, counting);
+  }
+
+  public IAppboy appboy() {
+    return appboy;
+  }
+
+  /** Calls per SDK method, keyed by {@code Class.method}. */
+  public Map<String, Long> callCounts() {
+    Map<String, Long> counts = new TreeMap<>();
+    for (Map.Entry<String, long[]> entry : calls.entrySet()) {
+      counts.put(entry.getKey(), entry.getValue()[0]);
+    }
+    return counts;
+  }
+
+  /** Total nanoseconds spent inside the stand-in, bounding the replay's measurement overhead. */
+  public long sdkNanos() {
+    long total = 0;
+    for (long[] stats : calls.values()) {
+      total += stats[1];
+    }
+    return total;
+  }
+
+  private static AppboyUser createUser(InvocationHandler handler) {
+    Class<? extends AppboyUser> type = new ByteBuddy()
+        .subclass(AppboyUser.class)
+        .method(isDeclaredBy(AppboyUser.class))
+        .intercept(InvocationHandlerAdapter.of(handler))
+        .make()
+        .load(AppboyUser.class.getClassLoader())
+        .getLoaded();
+    return new ObjenesisStd().newInstance(type);
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == void.class || !type.isPrimitive()) {
+      return null;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == double.class) {
+      return 0d;
+    }
+    if (type == float.class) {
+      return 0f;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,111 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import com.segment.analytics.Analytics;
+import com.segment.analytics.Properties;
+import com.segment.analytics.Traits;
+import com.segment.analytics.integrations.IdentifyPayload;
+import com.segment.analytics.integrations.Logger;
+import com.segment.analytics.integrations.TrackPayload;
+
+/**
+ * Payloads and integration instances shared by the benchmarks.
+ */
+public final class Fixtures {
+
+  public static final String USER_ID = "benchmark-user";
+
+  private Fixtures() {
+  }
+
+  /** Options builder for the benchmarks; android.os.Trace is not usable off-device. */
+  public static AppboyIntegrationOptions.Builder options() {
+    return AppboyIntegrationOptions.builder().tracer(Tracer.NONE);
+  }
+
+  public static AppboyIntegration integration(BenchmarkAppboy appboy,
+      AppboyIntegrationOptions options) {
+    return new AppboyIntegration(new InMemoryContext(), appboy, "benchmark",
+        Logger.with(Analytics.LogLevel.NONE), false, options);
+  }
+
+  /**
+   * Traits with the standard Braze fields plus custom attributes of mixed types, {@code size}
+   * entries in total. Payloads built with a different {@code variant} change the values of every
+   * other custom attribute, which is what a diffing identify typically sees.
+   */
+  public static Traits traits(int size, int variant) {
+    Traits traits = new Traits();
+    traits.put("userId", USER_ID);
+    traits.putEmail("user@example.com");
+    traits.putFirstName("First");
+    traits.putLastName("Last");
+    traits.putGender("female");
+    traits.putPhone("5555551234");
+    Traits.Address address = new Traits.Address();
+    address.putCity("Barcelona");
+    address.putCountry("ES");
+    traits.putAddress(address);
+
+    for (int i = traits.size(); i < size; i++) {
+      int value = i % 2 == 0 ? i + variant : i;
+      switch (i % 5) {
+        case 0:
+          traits.put("custom_string_" + i, "value-" + value);
+          break;
+        case 1:
+          traits.put("custom_int_" + i, value);
+          break;
+        case 2:
+          traits.put("custom_double_" + i, value * 1.5d);
+          break;
+        case 3:
+          traits.put("custom_bool_" + i, value % 2 == 0);
+          break;
+        default:
+          traits.put("custom_long_" + i, (long) value);
+          break;
+      }
+    }
+    return traits;
+  }
+
+  public static IdentifyPayload identify(Traits traits) {
+    return new IdentifyPayload.Builder()
+        .userId(USER_ID)
+        .traits(traits)
+        .build();
+  }
+
+  public static TrackPayload track(String event, Properties properties) {
+    return new TrackPayload.Builder()
+        .userId(USER_ID)
+        .event(event)
+        .properties(properties)
+        .build();
+  }
+
+  public static Properties productViewedProperties() {
+    return new Properties()
+        .putValue("product_id", "507f1f77bcf86cd799439011")
+        .putValue("sku", "G-32")
+        .putValue("category", "Games")
+        .putValue("name", "Monopoly: 3rd Edition")
+        .putValue("brand", "Hasbro")
+        .putValue("variant", "200 pieces")
+        .putValue("price", 18.99d)
+        .putValue("quantity", 1)
+        .putValue("position", 3);
+  }
+
+  public static Properties orderCompletedProperties() {
+    Properties properties = new Properties()
+        .putValue("order_id", "50314b8e9bcf000000000000")
+        .putValue("affiliation", "Google Store")
+        .putRevenue(25.00d)
+        .putCurrency("EUR");
+    properties.putProducts(
+        new Properties.Product("507f1f77bcf86cd799439011", "45790-32", 19d),
+        new Properties.Product("505bd76785ebb509fc183733", "46493-32", 3d));
+    return properties;
+  }
+}
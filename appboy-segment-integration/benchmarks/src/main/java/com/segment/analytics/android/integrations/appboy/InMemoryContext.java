@@ -0,0 +1,34 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal {@link Context} that only knows how to hand out {@link InMemorySharedPreferences}.
+ */
+public class InMemoryContext extends ContextWrapper {
+
+  private final Map<String, SharedPreferences> preferences = new HashMap<>();
+
+  public InMemoryContext() {
+    super(null);
+  }
+
+  @Override
+  public Context getApplicationContext() {
+    return this;
+  }
+
+  @Override
+  public SharedPreferences getSharedPreferences(String name, int mode) {
+    SharedPreferences prefs = preferences.get(name);
+    if (prefs == null) {
+      prefs = new InMemorySharedPreferences();
+      preferences.put(name, prefs);
+    }
+    return prefs;
+  }
+}
@@ -0,0 +1,150 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.content.SharedPreferences;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link SharedPreferences} held in a map, standing in for the XML backed implementation.
+ */
+public class InMemorySharedPreferences implements SharedPreferences {
+
+  private final Map<String, Object> values = new HashMap<>();
+
+  @Override
+  public Map<String, ?> getAll() {
+    return new HashMap<>(values);
+  }
+
+  @Override
+  public String getString(String key, String defValue) {
+    Object value = values.get(key);
+    return value != null ? (String) value : defValue;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Set<String> getStringSet(String key, Set<String> defValues) {
+    Object value = values.get(key);
+    return value != null ? (Set<String>) value : defValues;
+  }
+
+  @Override
+  public int getInt(String key, int defValue) {
+    Object value = values.get(key);
+    return value != null ? (Integer) value : defValue;
+  }
+
+  @Override
+  public long getLong(String key, long defValue) {
+    Object value = values.get(key);
+    return value != null ? (Long) value : defValue;
+  }
+
+  @Override
+  public float getFloat(String key, float defValue) {
+    Object value = values.get(key);
+    return value != null ? (Float) value : defValue;
+  }
+
+  @Override
+  public boolean getBoolean(String key, boolean defValue) {
+    Object value = values.get(key);
+    return value != null ? (Boolean) value : defValue;
+  }
+
+  @Override
+  public boolean contains(String key) {
+    return values.containsKey(key);
+  }
+
+  @Override
+  public Editor edit() {
+    return new InMemoryEditor();
+  }
+
+  @Override
+  public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+
+  }
+
+  @Override
+  public void unregisterOnSharedPreferenceChangeListener(
+      OnSharedPreferenceChangeListener listener) {
+
+  }
+
+  private class InMemoryEditor implements Editor {
+    private final Map<String, Object> pending = new HashMap<>();
+    private boolean clear;
+
+    @Override
+    public Editor putString(String key, String value) {
+      pending.put(key, value);
+      return this;
+    }
+
+    @Override
+    public Editor putStringSet(String key, Set<String> values) {
+      pending.put(key, values);
+      return this;
+    }
+
+    @Override
+    public Editor putInt(String key, int value) {
+      pending.put(key, value);
+      return this;
+    }
+
+    @Override
+    public Editor putLong(String key, long value) {
+      pending.put(key, value);
+      return this;
+    }
+
+    @Override
+    public Editor putFloat(String key, float value) {
+      pending.put(key, value);
+      return this;
+    }
+
+    @Override
+    public Editor putBoolean(String key, boolean value) {
+      pending.put(key, value);
+      return this;
+    }
+
+    @Override
+    public Editor remove(String key) {
+      pending.put(key, null);
+      return this;
+    }
+
+    @Override
+    public Editor clear() {
+      clear = true;
+      return this;
+    }
+
+    @Override
+    public boolean commit() {
+      apply();
+      return true;
+    }
+
+    @Override
+    public void apply() {
+      if (clear) {
+        values.clear();
+      }
+      for (Map.Entry<String, Object> entry : pending.entrySet()) {
+        if (entry.getValue() == null) {
+          values.remove(entry.getKey());
+        } else {
+          values.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+  }
+}
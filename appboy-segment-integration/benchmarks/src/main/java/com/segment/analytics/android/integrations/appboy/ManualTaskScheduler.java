@@ -0,0 +1,64 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.PriorityQueue;
+
+/**
+ * {@link TaskScheduler} driven by a virtual clock: scheduled tasks only run when the clock is
+ * advanced past their due time, in due order.
+ */
+public class ManualTaskScheduler implements TaskScheduler {
+
+  private final PriorityQueue<ScheduledTask> queue = new PriorityQueue<>();
+  private long now;
+  private long sequence;
+
+  @Override
+  public void schedule(Runnable task, long delayMillis) {
+    queue.add(new ScheduledTask(now + delayMillis, sequence++, task));
+  }
+
+  @Override
+  public void cancel(Runnable task) {
+    queue.removeIf(scheduled -> scheduled.task == task);
+  }
+
+  @Override
+  public long uptimeMillis() {
+    return now;
+  }
+
+  /** Moves the clock forward to {@code millis}, running every task that falls due on the way. */
+  public void advanceTo(long millis) {
+    while (!queue.isEmpty() && queue.peek().dueAt <= millis) {
+      ScheduledTask next = queue.poll();
+      now = Math.max(now, next.dueAt);
+      next.task.run();
+    }
+    now = Math.max(now, millis);
+  }
+
+  /** Runs every pending task, including ones scheduled while draining. */
+  public void drain() {
+    while (!queue.isEmpty()) {
+      advanceTo(queue.peek().dueAt);
+    }
+  }
+
+  private static final class ScheduledTask implements Comparable<ScheduledTask> {
+    final long dueAt;
+    final long sequence;
+    final Runnable task;
+
+    ScheduledTask(long dueAt, long sequence, Runnable task) {
+      this.dueAt = dueAt;
+      this.sequence = sequence;
+      this.task = task;
+    }
+
+    @Override
+    public int compareTo(ScheduledTask other) {
+      int byTime = Long.compare(dueAt, other.dueAt);
+      return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+    }
+  }
+}
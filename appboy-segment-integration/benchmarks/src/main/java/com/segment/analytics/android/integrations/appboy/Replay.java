@@ -0,0 +1,290 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.app.Activity;
+import com.segment.analytics.Analytics;
+import com.segment.analytics.Cartographer;
+import com.segment.analytics.Properties;
+import com.segment.analytics.Traits;
+import com.segment.analytics.integrations.IdentifyPayload;
+import com.segment.analytics.integrations.Logger;
+import com.segment.analytics.integrations.TrackPayload;
+import com.segment.analytics.internal.Utils;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.objenesis.ObjenesisStd;
+
+/**
+ * Replays recorded Segment traffic through {@link AppboyIntegration} and reports how long each call
+ * took and which Braze SDK calls it produced.
+ *
+ * <p>The input is JSONL, one call per line, shaped like the Segment payloads:
+ *
+ * <pre>
+ * {"type":"identify","userId":"u1","traits":{"email":"a@b.c"},
+ *   "timestamp":"2020-06-01T10:00:00.000Z"}
+ * {"type":"track","userId":"u1","event":"Order Completed","properties":{"revenue":9.99}}
+ * {"type":"lifecycle","callback":"started","activity":"MainActivity"}
+ * {"type":"flush"}
+ * {"type":"reset"}
+ * </pre>
+ *
+ * Records are one line each; the identify above is wrapped only to fit here. Identifies and tracks
+ * carry the recorded {@code userId} and {@code anonymousId}, either of which may be missing.
+ * Lifecycle callbacks are {@code started}, {@code resumed}, {@code paused} or {@code stopped}.
+ * Delayed work in the integration runs on a virtual clock that follows the recorded timestamps, so
+ * coalescing windows and grace periods behave as they did in production. With
+ * {@code --timing=recorded} the replay also sleeps for the recorded gaps.
+ *
+ * <p>Usage: {@code Replay <trace.jsonl> [--timing=full|recorded] [--trait-diffing]
+ * [--identify-coalescing=<ms>] [--session-grace=<ms>] [--repeat=<n>]}
+ */
+public final class Replay {
+
+  /** Stands in for the anonymous id when a record has neither id, which Segment requires. */
+  private static final String ANONYMOUS_ID = "replay-anonymous";
+
+  private final AppboyIntegrationOptions.Builder options;
+  private final boolean recordedTiming;
+  private final Cartographer cartographer = new Cartographer.Builder().lenient(true).build();
+  private final Map<String, Activity> activities = new HashMap<>();
+  private final Map<String, List<Long>> latencies = new LinkedHashMap<>();
+
+  private Replay(AppboyIntegrationOptions.Builder options, boolean recordedTiming) {
+    this.options = options;
+    this.recordedTiming = recordedTiming;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0) {
+      System.err.println("Usage: Replay <trace.jsonl> [--timing=full|recorded] [--trait-diffing]"
+          + " [--identify-coalescing=<ms>] [--session-grace=<ms>] [--repeat=<n>]");
+      System.exit(2);
+    }
+    AppboyIntegrationOptions.Builder options = Fixtures.options();
+    boolean recordedTiming = false;
+    int repeat = 1;
+    for (String arg : Arrays.asList(args).subList(1, args.length)) {
+      if (arg.equals("--timing=recorded")) {
+        recordedTiming = true;
+      } else if (arg.equals("--timing=full")) {
+        recordedTiming = false;
+      } else if (arg.equals("--trait-diffing")) {
+        options.enableTraitDiffing(true);
+      } else if (arg.startsWith("--identify-coalescing=")) {
+        options.enableIdentifyCoalescing(Long.parseLong(value(arg)));
+      } else if (arg.startsWith("--session-grace=")) {
+        options.sessionCloseGracePeriod(Long.parseLong(value(arg)));
+      } else if (arg.startsWith("--repeat=")) {
+        repeat = Integer.parseInt(value(arg));
+      } else {
+        throw new IllegalArgumentException("Unknown option " + arg);
+      }
+    }
+
+    List<Map<String, Object>> records = read(args[0]);
+    Replay replay = new Replay(options, recordedTiming);
+    for (int i = 1; i < repeat; i++) {
+      // Earlier passes warm up the JIT; only the last one is reported.
+      replay.run(records, null);
+    }
+    replay.run(records, System.out);
+  }
+
+  private static String value(String arg) {
+    return arg.substring(arg.indexOf('=') + 1);
+  }
+
+  private static List<Map<String, Object>> read(String path) throws IOException {
+    Cartographer cartographer = new Cartographer.Builder().lenient(true).build();
+    List<Map<String, Object>> records = new ArrayList<>();
+    try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+      String line;
+      int number = 0;
+      while ((line = reader.readLine()) != null) {
+        number++;
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        try {
+          records.add(cartographer.fromJson(line));
+        } catch (IOException | RuntimeException e) {
+          throw new IOException("Line " + number + " is not a JSON object", e);
+        }
+      }
+    }
+    return records;
+  }
+
+  private void run(List<Map<String, Object>> records, PrintStream out) throws InterruptedException {
+    CountingAppboy sdk = new CountingAppboy();
+    ManualTaskScheduler scheduler = new ManualTaskScheduler();
+    AppboyIntegration integration = new AppboyIntegration(new InMemoryContext(), sdk.appboy(),
+        "replay", Logger.with(Analytics.LogLevel.NONE), false,
+        options.scheduler(scheduler).build());
+    latencies.clear();
+
+    long firstTimestamp = -1;
+    long busyNanos = 0;
+    for (Map<String, Object> record : records) {
+      long timestamp = timestamp(record);
+      if (timestamp >= 0) {
+        if (firstTimestamp < 0) {
+          firstTimestamp = timestamp;
+        }
+        long offset = timestamp - firstTimestamp;
+        if (recordedTiming && offset > scheduler.uptimeMillis()) {
+          Thread.sleep(offset - scheduler.uptimeMillis());
+        }
+        scheduler.advanceTo(offset);
+      }
+
+      String type = String.valueOf(record.get("type"));
+      long start = System.nanoTime();
+      String label = dispatch(integration, type, record);
+      long elapsed = System.nanoTime() - start;
+      busyNanos += elapsed;
+      List<Long> samples = latencies.get(label);
+      if (samples == null) {
+        samples = new ArrayList<>();
+        latencies.put(label, samples);
+      }
+      samples.add(elapsed);
+    }
+    scheduler.drain();
+
+    if (out != null) {
+      report(out, records.size(), busyNanos, sdk);
+    }
+  }
+
+  private String dispatch(AppboyIntegration integration, String type, Map<String, Object> record) {
+    switch (type) {
+      case "identify": {
+        Traits traits = new Traits();
+        traits.putAll(map(record.get("traits")));
+        IdentifyPayload.Builder identify = new IdentifyPayload.Builder()
+            .anonymousId(anonymousId(record));
+        String userId = (String) record.get("userId");
+        if (userId != null) {
+          traits.put("userId", userId);
+          identify.userId(userId);
+        }
+        identify.traits(traits);
+        integration.identify(identify.build());
+        return type;
+      }
+      case "track": {
+        Properties properties = new Properties();
+        properties.putAll(map(record.get("properties")));
+        TrackPayload.Builder track = new TrackPayload.Builder()
+            .anonymousId(anonymousId(record))
+            .event(String.valueOf(record.get("event")))
+            .properties(properties);
+        String userId = (String) record.get("userId");
+        if (userId != null) {
+          track.userId(userId);
+        }
+        integration.track(track.build());
+        return type;
+      }
+      case "flush":
+        integration.flush();
+        return type;
+      case "reset":
+        integration.reset();
+        return type;
+      case "lifecycle": {
+        String callback = String.valueOf(record.get("callback"));
+        Activity activity = activity(String.valueOf(record.get("activity")));
+        switch (callback) {
+          case "started":
+            integration.onActivityStarted(activity);
+            break;
+          case "resumed":
+            integration.onActivityResumed(activity);
+            break;
+          case "paused":
+            integration.onActivityPaused(activity);
+            break;
+          case "stopped":
+            integration.onActivityStopped(activity);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown lifecycle callback " + callback);
+        }
+        return "lifecycle." + callback;
+      }
+      default:
+        throw new IllegalArgumentException("Unknown record type " + type);
+    }
+  }
+
+  private static String anonymousId(Map<String, Object> record) {
+    Object anonymousId = record.get("anonymousId");
+    return anonymousId instanceof String ? (String) anonymousId : ANONYMOUS_ID;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> map(Object value) {
+    return value instanceof Map ? (Map<String, Object>) value : new HashMap<String, Object>();
+  }
+
+  private Activity activity(String name) {
+    Activity activity = activities.get(name);
+    if (activity == null) {
+      // Activities can't be constructed off-device; the integration only uses them as tokens.
+      activity = new ObjenesisStd().newInstance(Activity.class);
+      activities.put(name, activity);
+    }
+    return activity;
+  }
+
+  private static long timestamp(Map<String, Object> record) {
+    Object timestamp = record.get("timestamp");
+    if (!(timestamp instanceof String)) {
+      return -1;
+    }
+    try {
+      return Utils.toISO8601Date((String) timestamp).getTime();
+    } catch (ParseException e) {
+      throw new IllegalArgumentException("Unreadable timestamp " + timestamp, e);
+    }
+  }
+
+  private void report(PrintStream out, int records, long busyNanos, CountingAppboy sdk) {
+    out.printf("%d calls in %.1f ms of integration time, %.0f calls/s%n", records,
+        busyNanos / 1e6, records / (busyNanos / 1e9));
+    out.printf("(%.1f ms of that inside the SDK stand-in)%n%n", sdk.sdkNanos() / 1e6);
+
+    out.printf("%-20s %8s %10s %10s %10s %10s%n", "call", "count", "p50 us", "p90 us", "p99 us",
+        "max us");
+    for (Map.Entry<String, List<Long>> entry : latencies.entrySet()) {
+      List<Long> samples = entry.getValue();
+      samples.sort(null);
+      out.printf("%-20s %8d %10.1f %10.1f %10.1f %10.1f%n", entry.getKey(), samples.size(),
+          percentile(samples, 50), percentile(samples, 90), percentile(samples, 99),
+          samples.get(samples.size() - 1) / 1e3);
+    }
+
+    out.printf("%n%-40s %8s%n", "SDK call", "count");
+    for (Map.Entry<String, Long> entry : sdk.callCounts().entrySet()) {
+      out.printf("%-40s %8d%n", entry.getKey(), entry.getValue());
+    }
+  }
+
+  private static double percentile(List<Long> sorted, int percentile) {
+    int index = (int) Math.ceil(percentile / 100d * sorted.size()) - 1;
+    return sorted.get(Math.max(0, index)) / 1e3;
+  }
+}
@@ -0,0 +1,114 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import com.segment.analytics.Properties;
+import com.segment.analytics.Traits;
+import com.segment.analytics.integrations.IdentifyPayload;
+import com.segment.analytics.integrations.TrackPayload;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Fails when a call allocates more than the per-call budget recorded for its scenario in
+ * {@code allocation-budgets.properties}.
+ */
+public class AllocationBudgetTest {
+
+  private static final int WARMUP = 20000;
+  private static final int ITERATIONS = 10000;
+
+  private static java.util.Properties budgets;
+
+  @BeforeClass
+  public static void loadBudgets() throws IOException {
+    budgets = new java.util.Properties();
+    try (InputStream in =
+        AllocationBudgetTest.class.getResourceAsStream("/allocation-budgets.properties")) {
+      assertNotNull("allocation-budgets.properties is missing", in);
+      budgets.load(in);
+    }
+  }
+
+  @Before
+  public void setUp() {
+    assumeTrue("Per-thread allocation counters are not available on this JVM",
+        AllocationMeter.isSupported());
+  }
+
+  @Test
+  public void identify() {
+    assertIdentifyWithinBudget("identify.10_traits", 10, false);
+    assertIdentifyWithinBudget("identify.50_traits", 50, false);
+  }
+
+  @Test
+  public void identifyWithTraitDiffing() {
+    assertIdentifyWithinBudget("identify.diffing.10_traits", 10, true);
+    assertIdentifyWithinBudget("identify.diffing.50_traits", 50, true);
+  }
+
+  @Test
+  public void identifyWithBirthday() {
+    AppboyIntegration integration = Fixtures.integration(new BenchmarkAppboy(),
+        Fixtures.options().build());
+    Traits traits = Fixtures.traits(10, 0);
+    traits.putBirthday(new Date(642384000000L));
+    IdentifyPayload payload = Fixtures.identify(traits);
+    assertWithinBudget("identify.birthday", () -> integration.identify(payload));
+  }
+
+  @Test
+  public void trackWithoutProperties() {
+    assertTrackWithinBudget("track.plain", Fixtures.track("Application Opened", new Properties()));
+  }
+
+  @Test
+  public void trackWithProperties() {
+    assertTrackWithinBudget("track.properties",
+        Fixtures.track("Product Viewed", Fixtures.productViewedProperties()));
+  }
+
+  @Test
+  public void trackWithRevenueAndProducts() {
+    assertTrackWithinBudget("track.revenue_products",
+        Fixtures.track("Order Completed", Fixtures.orderCompletedProperties()));
+  }
+
+  private void assertIdentifyWithinBudget(String scenario, int traitCount, boolean diffing) {
+    AppboyIntegration integration = Fixtures.integration(new BenchmarkAppboy(),
+        Fixtures.options().enableTraitDiffing(diffing).build());
+    IdentifyPayload[] payloads = {
+        Fixtures.identify(Fixtures.traits(traitCount, 0)),
+        Fixtures.identify(Fixtures.traits(traitCount, 1))
+    };
+    int[] next = {0};
+    assertWithinBudget(scenario, () -> {
+      integration.identify(payloads[next[0]]);
+      next[0] ^= 1;
+    });
+  }
+
+  private void assertTrackWithinBudget(String scenario, TrackPayload payload) {
+    AppboyIntegration integration = Fixtures.integration(new BenchmarkAppboy(),
+        Fixtures.options().build());
+    assertWithinBudget(scenario, () -> integration.track(payload));
+  }
+
+  static void assertWithinBudget(String scenario, Runnable call) {
+    String budget = budgets.getProperty(scenario);
+    assertNotNull("No allocation budget configured for " + scenario, budget);
+    long budgetBytes = Long.parseLong(budget.trim());
+
+    long bytes = AllocationMeter.bytesPerCall(call, WARMUP, ITERATIONS);
+    System.out.println(scenario + ": " + bytes + " bytes/call (budget " + budgetBytes + ")");
+    assertTrue(scenario + " allocated " + bytes + " bytes per call, budget is " + budgetBytes,
+        bytes <= budgetBytes);
+  }
+}
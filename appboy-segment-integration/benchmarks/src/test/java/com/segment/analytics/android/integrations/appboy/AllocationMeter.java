@@ -0,0 +1,38 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures bytes allocated by the current thread, using the HotSpot per-thread allocation
+ * counters.
+ */
+final class AllocationMeter {
+
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private AllocationMeter() {
+  }
+
+  static boolean isSupported() {
+    return THREADS.isThreadAllocatedMemorySupported() && THREADS.isThreadAllocatedMemoryEnabled();
+  }
+
+  /**
+   * Runs {@code call} {@code warmup} times so that class loading, lazy initialisation and JIT
+   * compilation are out of the way, then returns the average number of bytes allocated by one of
+   * the following {@code iterations} calls.
+   */
+  static long bytesPerCall(Runnable call, int warmup, int iterations) {
+    for (int i = 0; i < warmup; i++) {
+      call.run();
+    }
+    long threadId = Thread.currentThread().getId();
+    long before = THREADS.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < iterations; i++) {
+      call.run();
+    }
+    long after = THREADS.getThreadAllocatedBytes(threadId);
+    return (after - before) / iterations;
+  }
+}
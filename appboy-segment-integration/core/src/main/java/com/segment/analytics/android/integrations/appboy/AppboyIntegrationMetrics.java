@@ -0,0 +1,90 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how the integration handled traffic, for an app's own telemetry. Pass an
+ * instance to {@code AppboyIntegrationOptions.Builder#metrics} and read it from any thread.
+ */
+public final class AppboyIntegrationMetrics {
+
+  final AtomicLong propertyShapeHits = new AtomicLong();
+  final AtomicLong propertyShapeMisses = new AtomicLong();
+  final AtomicLong namesTooLong = new AtomicLong();
+  final AtomicLong keysTooLong = new AtomicLong();
+  final AtomicLong valuesTooLong = new AtomicLong();
+  final AtomicLong propertiesTooLarge = new AtomicLong();
+  final AtomicLong droppedEvents = new AtomicLong();
+  final AtomicLong droppedBulkEvents = new AtomicLong();
+  final AtomicLong networkFailures = new AtomicLong();
+  final AtomicLong consecutiveNetworkFailures = new AtomicLong();
+  final AtomicLong flushBackoffMillis = new AtomicLong();
+  final AtomicLong heldBackFlushes = new AtomicLong();
+
+  /** Custom events whose properties matched the shape remembered for their name. */
+  public long getPropertyShapeHits() {
+    return propertyShapeHits.get();
+  }
+
+  /** Custom events with properties that had to be converted generically. */
+  public long getPropertyShapeMisses() {
+    return propertyShapeMisses.get();
+  }
+
+  /** Share of custom events with properties that were converted through a remembered shape. */
+  public double getPropertyShapeHitRate() {
+    long hits = propertyShapeHits.get();
+    long total = hits + propertyShapeMisses.get();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  /** Event names over the length limit. */
+  public long getNamesTooLong() {
+    return namesTooLong.get();
+  }
+
+  /** Event property and custom attribute keys over the length limit. */
+  public long getKeysTooLong() {
+    return keysTooLong.get();
+  }
+
+  /** String property and custom attribute values over the length limit. */
+  public long getValuesTooLong() {
+    return valuesTooLong.get();
+  }
+
+  /** Events whose properties were estimated to be over the size limit. */
+  public long getPropertiesTooLarge() {
+    return propertiesTooLarge.get();
+  }
+
+  /** Events dropped for exceeding a limit. */
+  public long getDroppedEvents() {
+    return droppedEvents.get();
+  }
+
+  /** Custom events dropped because the bulk lane was full. */
+  public long getDroppedBulkEvents() {
+    return droppedBulkEvents.get();
+  }
+
+  /** Network failures Braze reported. */
+  public long getNetworkFailures() {
+    return networkFailures.get();
+  }
+
+  /** Network failures since flushes last went through without one, 0 when not backing off. */
+  public long getConsecutiveNetworkFailures() {
+    return consecutiveNetworkFailures.get();
+  }
+
+  /** The current delay between flushes after network failures, 0 when not backing off. */
+  public long getFlushBackoffMillis() {
+    return flushBackoffMillis.get();
+  }
+
+  /** Explicit flushes held back, and merged into a later one, after network failures. */
+  public long getHeldBackFlushes() {
+    return heldBackFlushes.get();
+  }
+}
@@ -0,0 +1,104 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import androidx.annotation.Nullable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the {@code campaign} of an "Install Attributed" event. Attribution partners send it either
+ * as a map or as a JSON string; anything else is rejected up front instead of failing on a cast.
+ */
+class AttributionParser {
+
+  static final String CAMPAIGN_KEY = "campaign";
+  private static final String SOURCE_KEY = "source";
+  private static final String NAME_KEY = "name";
+  private static final String AD_GROUP_KEY = "ad_group";
+  private static final String AD_CREATIVE_KEY = "ad_creative";
+
+  /** Parses a JSON object; the integration backs this with Segment's {@code Cartographer}. */
+  interface JsonParser {
+    Map<String, Object> parse(String json) throws IOException;
+  }
+
+  static class Attribution {
+    @Nullable final String source;
+    @Nullable final String name;
+    @Nullable final String adGroup;
+    @Nullable final String adCreative;
+    /** Campaign fields Braze's attribution data has no slot for. */
+    final Map<String, Object> extras;
+
+    Attribution(@Nullable String source, @Nullable String name, @Nullable String adGroup,
+        @Nullable String adCreative, Map<String, Object> extras) {
+      this.source = source;
+      this.name = name;
+      this.adGroup = adGroup;
+      this.adCreative = adCreative;
+      this.extras = extras;
+    }
+  }
+
+  private final JsonParser jsonParser;
+
+  AttributionParser(JsonParser jsonParser) {
+    this.jsonParser = jsonParser;
+  }
+
+  @Nullable
+  Attribution parse(@Nullable Object campaign) {
+    if (campaign instanceof Map) {
+      return fromMap((Map<?, ?>) campaign);
+    }
+    if (campaign instanceof String) {
+      return fromJson((String) campaign);
+    }
+    return null;
+  }
+
+  @Nullable
+  private Attribution fromJson(String campaign) {
+    String json = campaign.trim();
+    if (!json.startsWith("{") || !json.endsWith("}")) {
+      return null;
+    }
+    try {
+      return fromMap(jsonParser.parse(json));
+    } catch (IOException | RuntimeException malformed) {
+      // Only reached for strings that look like a JSON object but are not valid JSON.
+      return null;
+    }
+  }
+
+  private static Attribution fromMap(Map<?, ?> campaign) {
+    Map<String, Object> extras = null;
+    for (Map.Entry<?, ?> entry : campaign.entrySet()) {
+      Object key = entry.getKey();
+      if (SOURCE_KEY.equals(key) || NAME_KEY.equals(key) || AD_GROUP_KEY.equals(key)
+          || AD_CREATIVE_KEY.equals(key) || entry.getValue() == null) {
+        continue;
+      }
+      if (extras == null) {
+        extras = new LinkedHashMap<>();
+      }
+      extras.put(String.valueOf(key), entry.getValue());
+    }
+    return new Attribution(
+        getString(campaign, SOURCE_KEY),
+        getString(campaign, NAME_KEY),
+        getString(campaign, AD_GROUP_KEY),
+        getString(campaign, AD_CREATIVE_KEY),
+        extras != null ? extras : Collections.<String, Object>emptyMap());
+  }
+
+  @Nullable
+  private static String getString(Map<?, ?> map, String key) {
+    Object value = map.get(key);
+    if (value instanceof String) {
+      return (String) value;
+    }
+    return value != null ? String.valueOf(value) : null;
+  }
+}
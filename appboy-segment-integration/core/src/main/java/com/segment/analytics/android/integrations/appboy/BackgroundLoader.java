@@ -0,0 +1,49 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/** Runs a load on its own daemon thread as soon as it is created. */
+class BackgroundLoader<T> {
+
+  private final FutureTask<T> task;
+
+  BackgroundLoader(String threadName, Callable<T> load) {
+    task = new FutureTask<>(load);
+    Thread thread = new Thread(task, threadName);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  boolean isDone() {
+    return task.isDone();
+  }
+
+  /** Returns the loaded value, waiting for the load to finish if needed. */
+  T get() {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.Date;
+
+/** Maps trait and campaign values onto Braze's typed custom attribute setters. */
+final class CustomAttributes {
+
+  /** The custom attribute setters of a Braze user. */
+  interface Sink {
+    void set(String key, boolean value);
+
+    void set(String key, int value);
+
+    void set(String key, long value);
+
+    void set(String key, float value);
+
+    void set(String key, double value);
+
+    void set(String key, String value);
+
+    void setToSecondsFromEpoch(String key, long secondsFromEpoch);
+
+    void increment(String key, int delta);
+  }
+
+  private CustomAttributes() {
+  }
+
+  /** Sets {@code value} on {@code sink}, returning false for types Braze can't store. */
+  static boolean set(Sink sink, String key, Object value) {
+    if (value instanceof Boolean) {
+      sink.set(key, (boolean) (Boolean) value);
+    } else if (value instanceof Integer) {
+      sink.set(key, (int) (Integer) value);
+    } else if (value instanceof Double) {
+      sink.set(key, (double) (Double) value);
+    } else if (value instanceof Float) {
+      sink.set(key, (float) (Float) value);
+    } else if (value instanceof Long) {
+      sink.set(key, (long) (Long) value);
+    } else if (value instanceof Date) {
+      sink.setToSecondsFromEpoch(key, ((Date) value).getTime() / 1000L);
+    } else if (value instanceof String) {
+      sink.set(key, (String) value);
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Adds {@code value - previous} to the attribute, treating it as a counter. Returns false, so the
+   * caller can set the absolute value instead, unless both are whole numbers and the counter grew
+   * by no more than {@link Integer#MAX_VALUE}; a counter that went down was most likely reset.
+   */
+  static boolean increment(Sink sink, String key, Object value, Object previous) {
+    if (!isWholeNumber(value) || !isWholeNumber(previous)) {
+      return false;
+    }
+    long delta = ((Number) value).longValue() - ((Number) previous).longValue();
+    if (delta < 0 || delta > Integer.MAX_VALUE) {
+      return false;
+    }
+    if (delta > 0) {
+      sink.increment(key, (int) delta);
+    }
+    return true;
+  }
+
+  /** Cached traits come back from JSON as doubles, so integral doubles count as whole numbers. */
+  private static boolean isWholeNumber(Object value) {
+    if (value instanceof Integer || value instanceof Long || value instanceof Short
+        || value instanceof Byte) {
+      return true;
+    }
+    if (value instanceof Double || value instanceof Float) {
+      double number = ((Number) value).doubleValue();
+      return !Double.isInfinite(number) && number == Math.rint(number);
+    }
+    return false;
+  }
+}
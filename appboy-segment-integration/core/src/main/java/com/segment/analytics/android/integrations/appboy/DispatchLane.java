@@ -0,0 +1,73 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds SDK calls of one priority and runs them in batches, so that low priority traffic can be
+ * deferred and bounded without ever holding up calls on another lane. Calls wait up to the flush
+ * delay after the first one of a batch; while the lane is at capacity the oldest waiting call is
+ * dropped to make room. Calls may be submitted and flushed from different threads.
+ */
+class DispatchLane {
+
+  private final TaskScheduler scheduler;
+  private final int capacity;
+  private final long flushDelayMillis;
+  private final AtomicLong dropped;
+  private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  private boolean flushScheduled;
+
+  DispatchLane(TaskScheduler scheduler, int capacity, long flushDelayMillis, AtomicLong dropped) {
+    this.scheduler = scheduler;
+    this.capacity = capacity;
+    this.flushDelayMillis = flushDelayMillis;
+    this.dropped = dropped;
+  }
+
+  void submit(Runnable call) {
+    synchronized (pending) {
+      if (pending.size() >= capacity) {
+        pending.pollFirst();
+        dropped.incrementAndGet();
+      }
+      pending.addLast(call);
+      if (!flushScheduled) {
+        flushScheduled = true;
+        scheduler.schedule(flushTask, flushDelayMillis);
+      }
+    }
+  }
+
+  /** Runs every waiting call, in the order they were submitted. */
+  void flush() {
+    Runnable[] calls;
+    synchronized (pending) {
+      if (flushScheduled) {
+        flushScheduled = false;
+        scheduler.cancel(flushTask);
+      }
+      if (pending.isEmpty()) {
+        return;
+      }
+      calls = pending.toArray(new Runnable[0]);
+      pending.clear();
+    }
+    for (Runnable call : calls) {
+      call.run();
+    }
+  }
+
+  int size() {
+    synchronized (pending) {
+      return pending.size();
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Routes track events by name. The routing table is built once, so classifying an event is a
+ * single hash lookup.
+ */
+class EventClassifier {
+
+  enum Route {
+    CUSTOM,
+    PURCHASE,
+    INSTALL_ATTRIBUTION,
+    COUNTED
+  }
+
+  static final String INSTALL_ATTRIBUTED = "Install Attributed";
+  static final String ORDER_COMPLETED = "Order Completed";
+
+  private final Map<String, Route> routes = new HashMap<>();
+
+  /** Events listed as both counted and purchases are routed as purchases. */
+  EventClassifier(Collection<String> purchaseEvents, Collection<String> countedEvents) {
+    for (String event : countedEvents) {
+      routes.put(event, Route.COUNTED);
+    }
+    routes.put(ORDER_COMPLETED, Route.PURCHASE);
+    for (String event : purchaseEvents) {
+      routes.put(event, Route.PURCHASE);
+    }
+    routes.put(INSTALL_ATTRIBUTED, Route.INSTALL_ATTRIBUTION);
+  }
+
+  /**
+   * Events without an explicit route are custom events. Custom and counted events are still logged
+   * as purchases when they carry revenue.
+   */
+  Route classify(String event) {
+    Route route = routes.get(event);
+    return route != null ? route : Route.CUSTOM;
+  }
+}
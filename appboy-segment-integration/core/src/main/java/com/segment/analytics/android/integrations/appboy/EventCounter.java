@@ -0,0 +1,70 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts occurrences of a fixed set of events and hands the counts to a {@link Sink} in batches.
+ * The table of events is built once; counting is a hash lookup and an atomic add, so events can be
+ * counted on any thread while a flush drains the table on another. A flush is scheduled when the
+ * first event is counted after the previous one.
+ */
+class EventCounter {
+
+  interface Sink {
+    void add(String event, long count);
+  }
+
+  private final Map<String, Integer> indexes = new HashMap<>();
+  private final String[] events;
+  private final AtomicLongArray counts;
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private final TaskScheduler scheduler;
+  private final long flushIntervalMillis;
+  private final Sink sink;
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  EventCounter(Collection<String> events, TaskScheduler scheduler, long flushIntervalMillis,
+      Sink sink) {
+    this.events = events.toArray(new String[0]);
+    for (int i = 0; i < this.events.length; i++) {
+      indexes.put(this.events[i], i);
+    }
+    counts = new AtomicLongArray(this.events.length);
+    this.scheduler = scheduler;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.sink = sink;
+  }
+
+  /** Counts {@code event} if it is one of the counted events, otherwise does nothing. */
+  void count(String event) {
+    Integer index = indexes.get(event);
+    if (index == null) {
+      return;
+    }
+    counts.incrementAndGet(index);
+    if (flushScheduled.compareAndSet(false, true)) {
+      scheduler.schedule(flushTask, flushIntervalMillis);
+    }
+  }
+
+  /** Passes every non-zero count to the sink and resets it. */
+  void flush() {
+    scheduler.cancel(flushTask);
+    flushScheduled.set(false);
+    for (int i = 0; i < events.length; i++) {
+      long count = counts.getAndSet(i, 0);
+      if (count > 0) {
+        sink.add(events[i], count);
+      }
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.Random;
+
+/**
+ * Holds back explicit flushes while Braze reports network failures. Each failure starts a delay
+ * that doubles with every consecutive failure, up to a maximum, half of it randomized so clients
+ * that failed together don't retry together. Once the delay is over one flush goes through as a
+ * probe; if no failure is reported within another delay the connection counts as recovered and
+ * the next flush resets the backoff. Failures are reported on Braze's threads, so all methods are
+ * synchronized.
+ */
+class FlushBackoff {
+
+  private static final int MAX_SHIFT = 30;
+
+  private final long baseMillis;
+  private final long maxMillis;
+  private final Random random;
+  private final AppboyIntegrationMetrics metrics;
+
+  private int failures;
+  private long delayMillis;
+  private long nextFlushAt;
+  private boolean probing;
+
+  FlushBackoff(long baseMillis, long maxMillis, Random random, AppboyIntegrationMetrics metrics) {
+    this.baseMillis = baseMillis;
+    this.maxMillis = maxMillis;
+    this.random = random;
+    this.metrics = metrics;
+  }
+
+  synchronized void onFailure(long now) {
+    failures++;
+    long exponential = Math.min(maxMillis, baseMillis << Math.min(failures - 1, MAX_SHIFT));
+    if (exponential < 0) {
+      exponential = maxMillis;
+    }
+    long half = exponential / 2;
+    delayMillis = exponential - half + (long) (random.nextDouble() * half);
+    nextFlushAt = now + delayMillis;
+    probing = false;
+    metrics.networkFailures.incrementAndGet();
+    metrics.consecutiveNetworkFailures.set(failures);
+    metrics.flushBackoffMillis.set(delayMillis);
+  }
+
+  /** Returns 0 if a flush may be sent at {@code now}, otherwise how long it should wait. */
+  synchronized long tryFlush(long now) {
+    if (failures == 0) {
+      return 0;
+    }
+    if (now < nextFlushAt) {
+      metrics.heldBackFlushes.incrementAndGet();
+      return nextFlushAt - now;
+    }
+    if (probing) {
+      failures = 0;
+      delayMillis = 0;
+      probing = false;
+      metrics.consecutiveNetworkFailures.set(0);
+      metrics.flushBackoffMillis.set(0);
+      return 0;
+    }
+    probing = true;
+    nextFlushAt = now + delayMillis;
+    return 0;
+  }
+}
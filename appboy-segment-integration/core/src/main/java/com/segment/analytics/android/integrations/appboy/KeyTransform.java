@@ -0,0 +1,83 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import androidx.annotation.Nullable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Renames or drops Segment property and trait keys on their way to Braze. Explicit renames and
+ * drops are compiled into one table; keys converted to snake_case are cached, so each distinct key
+ * is only converted once. Renames apply to the original keys only, so they can be chained or
+ * swapped; when two keys end up with the same Braze key the value of the later one is sent.
+ */
+final class KeyTransform {
+
+  static final int MAX_CACHED_KEYS = 1024;
+
+  private static final Object DROPPED = new Object();
+
+  private final Map<String, Object> table = new HashMap<>();
+  private final boolean snakeCase;
+  private final Map<String, String> converted = new ConcurrentHashMap<>();
+
+  KeyTransform(Map<String, String> renames, Collection<String> drops, boolean snakeCase) {
+    table.putAll(renames);
+    for (String key : drops) {
+      table.put(key, DROPPED);
+    }
+    this.snakeCase = snakeCase;
+  }
+
+  /** Returns the key to use in Braze, or null if the key should not be sent. */
+  @Nullable
+  String apply(String key) {
+    Object mapped = table.get(key);
+    if (mapped != null) {
+      return mapped == DROPPED ? null : (String) mapped;
+    }
+    if (!snakeCase) {
+      return key;
+    }
+    String cached = converted.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    String result = toSnakeCase(key);
+    if (converted.size() < MAX_CACHED_KEYS) {
+      converted.put(key, result);
+    }
+    return result;
+  }
+
+  /**
+   * Converts camelCase and PascalCase to snake_case, keeping acronyms together, e.g.
+   * {@code orderID} to {@code order_id} and {@code HTTPStatus} to {@code http_status}. Returns
+   * {@code key} itself if it has no upper case letters.
+   */
+  static String toSnakeCase(String key) {
+    int length = key.length();
+    int i = 0;
+    while (i < length && !Character.isUpperCase(key.charAt(i))) {
+      i++;
+    }
+    if (i == length) {
+      return key;
+    }
+    StringBuilder builder = new StringBuilder(length + 4).append(key, 0, i);
+    for (; i < length; i++) {
+      char c = key.charAt(i);
+      if (Character.isUpperCase(c)) {
+        if (i > 0 && key.charAt(i - 1) != '_' && (!Character.isUpperCase(key.charAt(i - 1))
+            || (i + 1 < length && Character.isLowerCase(key.charAt(i + 1))))) {
+          builder.append('_');
+        }
+        builder.append(Character.toLowerCase(c));
+      } else {
+        builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,21 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Told when an integration callback keeps the main thread busy for longer than the budget set with
+ * {@code AppboyIntegrationOptions.Builder#mainThreadBudget}. Called on the main thread right after
+ * the callback, so it should only hand the report off.
+ */
+public interface MainThreadBudgetListener {
+
+  /**
+   * @param callback the callback's trace section, e.g. {@code Braze.onActivityStarted}
+   * @param callbackNanos how long the callback took
+   * @param phase the slowest section directly inside the callback, e.g.
+   * {@code Braze.openSession}, or null if it had none
+   * @param phaseNanos how long {@code phase} took, 0 if there is none
+   */
+  void onBudgetExceeded(String callback, long callbackNanos, @Nullable String phase,
+      long phaseNanos);
+}
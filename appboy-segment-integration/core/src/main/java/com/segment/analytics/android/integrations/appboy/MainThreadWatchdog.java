@@ -0,0 +1,89 @@
+package com.segment.analytics.android.integrations.appboy;
+
+/**
+ * Times the outermost sections begun on the main thread, i.e. the integration callbacks, and
+ * reports those that take longer than the budget together with their slowest direct sub-section.
+ * Sections on other threads are only passed on to the wrapped tracer. All state is confined to the
+ * main thread.
+ */
+final class MainThreadWatchdog implements Tracer {
+
+  interface Clock {
+    long nanoTime();
+  }
+
+  static final Clock SYSTEM_CLOCK = new Clock() {
+    @Override
+    public long nanoTime() {
+      return System.nanoTime();
+    }
+  };
+
+  private final Tracer delegate;
+  private final Thread mainThread;
+  private final long budgetNanos;
+  private final MainThreadBudgetListener listener;
+  private final Clock clock;
+
+  private int depth;
+  private String callback;
+  private long callbackStart;
+  private String phase;
+  private long phaseStart;
+  private String slowestPhase;
+  private long slowestPhaseNanos;
+
+  MainThreadWatchdog(Tracer delegate, Thread mainThread, long budgetNanos,
+      MainThreadBudgetListener listener, Clock clock) {
+    this.delegate = delegate;
+    this.mainThread = mainThread;
+    this.budgetNanos = budgetNanos;
+    this.listener = listener;
+    this.clock = clock;
+  }
+
+  @Override
+  public void beginSection(String name) {
+    delegate.beginSection(name);
+    if (Thread.currentThread() != mainThread) {
+      return;
+    }
+    depth++;
+    if (depth == 1) {
+      callback = name;
+      slowestPhase = null;
+      slowestPhaseNanos = 0;
+      callbackStart = clock.nanoTime();
+    } else if (depth == 2) {
+      phase = name;
+      phaseStart = clock.nanoTime();
+    }
+  }
+
+  @Override
+  public void endSection() {
+    if (Thread.currentThread() != mainThread || depth == 0) {
+      delegate.endSection();
+      return;
+    }
+    long now = clock.nanoTime();
+    depth--;
+    if (depth == 1) {
+      long phaseNanos = now - phaseStart;
+      if (slowestPhase == null || phaseNanos > slowestPhaseNanos) {
+        slowestPhase = phase;
+        slowestPhaseNanos = phaseNanos;
+      }
+      phase = null;
+    }
+    delegate.endSection();
+    if (depth == 0) {
+      long callbackNanos = now - callbackStart;
+      String name = callback;
+      callback = null;
+      if (callbackNanos > budgetNanos) {
+        listener.onBudgetExceeded(name, callbackNanos, slowestPhase, slowestPhaseNanos);
+      }
+    }
+  }
+}
@@ -0,0 +1,261 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import androidx.annotation.Nullable;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Checks event names, property and attribute keys, string values and the estimated size of event
+ * properties against Braze's limits before anything is converted for the SDK. Keys are checked as
+ * Braze will see them, after the key transform. Valid payloads are checked without allocating;
+ * only payloads that need fixing are copied.
+ */
+class PayloadValidator {
+
+  /** Braze's limit for event names, property and attribute keys and string values, in chars. */
+  static final int BRAZE_MAX_LENGTH = 255;
+  /** Braze's limit for the properties of a single event, in bytes of JSON. */
+  static final int BRAZE_MAX_PROPERTIES_BYTES = 50 * 1024;
+
+  static final int VALID = 0;
+  static final int FIX = 1;
+  static final int DROP = 2;
+
+  private final ValidationPolicy policy;
+  private final int maxLength;
+  private final int maxPropertiesBytes;
+  @Nullable
+  private final KeyTransform keyTransform;
+  private final AppboyIntegrationMetrics metrics;
+
+  PayloadValidator(ValidationPolicy policy, int maxLength, int maxPropertiesBytes,
+      @Nullable KeyTransform keyTransform, AppboyIntegrationMetrics metrics) {
+    this.policy = policy;
+    this.maxLength = maxLength;
+    this.maxPropertiesBytes = maxPropertiesBytes;
+    this.keyTransform = keyTransform;
+    this.metrics = metrics;
+  }
+
+  /** Returns the name to log the event with, or null if the event should be dropped. */
+  @Nullable
+  String eventName(String event) {
+    if (event.length() <= maxLength) {
+      return event;
+    }
+    metrics.namesTooLong.incrementAndGet();
+    if (policy == ValidationPolicy.TRUNCATE) {
+      return truncate(event);
+    }
+    metrics.droppedEvents.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Returns the name to log a purchase with. Purchases are never dropped, so a name over the limit
+   * is truncated whatever the policy.
+   */
+  String purchaseName(String event) {
+    if (event.length() <= maxLength) {
+      return event;
+    }
+    metrics.namesTooLong.incrementAndGet();
+    return truncate(event);
+  }
+
+  /**
+   * Returns {@link #VALID}, {@link #FIX} if {@link #fixProperties(Map, Map)} has to be applied,
+   * or {@link #DROP} if the event should be dropped.
+   */
+  int checkProperties(Map<String, Object> properties) {
+    return checkProperties(properties, false);
+  }
+
+  /**
+   * Like {@link #checkProperties(Map)}, but skips revenue, currency and products, which Braze takes
+   * separately, and never returns {@link #DROP}: purchases are kept, and the offending properties
+   * left out or truncated by {@link #fixPurchaseProperties(Map, Map)} instead.
+   */
+  int checkPurchaseProperties(Map<String, Object> properties) {
+    return checkProperties(properties, true);
+  }
+
+  private int checkProperties(Map<String, Object> properties, boolean purchase) {
+    int result = VALID;
+    long bytes = 2;
+    for (Map.Entry<String, Object> entry : properties.entrySet()) {
+      if (purchase && isPurchaseField(entry.getKey())) {
+        continue;
+      }
+      String key = brazeKey(entry.getKey());
+      if (key == null) {
+        continue;
+      }
+      Object value = entry.getValue();
+      if (key.length() > maxLength) {
+        metrics.keysTooLong.incrementAndGet();
+        result = violation(result, !purchase);
+      }
+      if (value instanceof String && ((String) value).length() > maxLength) {
+        metrics.valuesTooLong.incrementAndGet();
+        result = violation(result, !purchase);
+      }
+      bytes += entryBytes(key, value);
+    }
+    if (bytes > maxPropertiesBytes) {
+      metrics.propertiesTooLarge.incrementAndGet();
+      result = violation(result, !purchase);
+    }
+    if (result == DROP) {
+      metrics.droppedEvents.incrementAndGet();
+    }
+    return result;
+  }
+
+  /**
+   * Copies the properties that can be kept into {@code out}, truncated if the policy says so.
+   * {@code out} is keyed by Braze keys, with the key transform already applied.
+   */
+  void fixProperties(Map<String, Object> properties, Map<String, Object> out) {
+    fixProperties(properties, out, false);
+  }
+
+  /** Like {@link #fixProperties(Map, Map)}, but leaves out revenue, currency and products. */
+  void fixPurchaseProperties(Map<String, Object> properties, Map<String, Object> out) {
+    fixProperties(properties, out, true);
+  }
+
+  private void fixProperties(Map<String, Object> properties, Map<String, Object> out,
+      boolean purchase) {
+    long bytes = 2;
+    for (Map.Entry<String, Object> entry : properties.entrySet()) {
+      if (purchase && isPurchaseField(entry.getKey())) {
+        continue;
+      }
+      String key = brazeKey(entry.getKey());
+      if (key == null) {
+        continue;
+      }
+      key = attributeKey(key, false);
+      Object value = entry.getValue();
+      if (value != null) {
+        value = attributeValue(value, false);
+        if (value == null) {
+          continue;
+        }
+      }
+      if (key == null) {
+        continue;
+      }
+      long size = entryBytes(key, value);
+      if (bytes + size > maxPropertiesBytes) {
+        continue;
+      }
+      bytes += size;
+      out.put(key, value);
+    }
+  }
+
+  /**
+   * Returns the custom attribute key to use, or null if the attribute should be left out.
+   * {@code key} must already be the transformed Braze key.
+   */
+  @Nullable
+  String attributeKey(String key) {
+    return attributeKey(key, true);
+  }
+
+  /** Returns the custom attribute value to use, or null if the attribute should be left out. */
+  @Nullable
+  Object attributeValue(Object value) {
+    return attributeValue(value, true);
+  }
+
+  @Nullable
+  private String attributeKey(String key, boolean count) {
+    if (key.length() <= maxLength) {
+      return key;
+    }
+    if (count) {
+      metrics.keysTooLong.incrementAndGet();
+    }
+    return policy == ValidationPolicy.TRUNCATE ? truncate(key) : null;
+  }
+
+  @Nullable
+  private Object attributeValue(Object value, boolean count) {
+    if (!(value instanceof String) || ((String) value).length() <= maxLength) {
+      return value;
+    }
+    if (count) {
+      metrics.valuesTooLong.incrementAndGet();
+    }
+    return policy == ValidationPolicy.TRUNCATE ? truncate((String) value) : null;
+  }
+
+  @Nullable
+  private String brazeKey(String key) {
+    return keyTransform != null ? keyTransform.apply(key) : key;
+  }
+
+  private static boolean isPurchaseField(String key) {
+    return PurchaseFields.REVENUE_KEY.equals(key) || PurchaseFields.CURRENCY_KEY.equals(key)
+        || PurchaseFields.PRODUCTS_KEY.equals(key);
+  }
+
+  private int violation(int result, boolean canDrop) {
+    return canDrop && policy == ValidationPolicy.DROP_EVENT ? DROP : Math.max(result, FIX);
+  }
+
+  /** Cuts {@code value} to the limit without splitting a surrogate pair. */
+  private String truncate(String value) {
+    int end = maxLength;
+    if (end > 0 && Character.isHighSurrogate(value.charAt(end - 1))) {
+      end--;
+    }
+    return value.substring(0, end);
+  }
+
+  private static long entryBytes(String key, @Nullable Object value) {
+    return utf8Length(key) + 4 + estimateBytes(value);
+  }
+
+  /** Size of {@code value} as JSON, exact for strings and an upper estimate for numbers. */
+  private static long estimateBytes(@Nullable Object value) {
+    if (value instanceof String) {
+      return utf8Length((String) value) + 2;
+    } else if (value instanceof Map) {
+      long bytes = 2;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        bytes += entryBytes(String.valueOf(entry.getKey()), entry.getValue());
+      }
+      return bytes;
+    } else if (value instanceof Collection) {
+      long bytes = 2;
+      for (Object element : (Collection<?>) value) {
+        bytes += estimateBytes(element) + 1;
+      }
+      return bytes;
+    }
+    return 24;
+  }
+
+  private static int utf8Length(String value) {
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+}
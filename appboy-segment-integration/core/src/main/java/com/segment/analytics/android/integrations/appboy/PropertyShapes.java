@@ -0,0 +1,166 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import androidx.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the property shape (keys and value types) last seen for each event name, so events
+ * that keep their shape are written to Braze with typed setters instead of going through a JSON
+ * copy. Only flat properties of the types Braze stores natively get a shape; anything else, and
+ * any event whose properties differ from its remembered shape, is left to the generic conversion.
+ * Renamed keys are resolved when a shape is learned, so the key transform costs nothing per event.
+ * Not thread safe; used from the thread track calls are delivered on.
+ */
+class PropertyShapes {
+
+  /** Braze's typed event property setters. */
+  interface Sink {
+    void add(String key, String value);
+
+    void add(String key, int value);
+
+    void add(String key, long value);
+
+    void add(String key, double value);
+
+    void add(String key, boolean value);
+  }
+
+  static final int MAX_EVENTS = 64;
+
+  private static final byte UNSUPPORTED = 0;
+  private static final byte STRING = 1;
+  private static final byte INT = 2;
+  private static final byte LONG = 3;
+  private static final byte DOUBLE = 4;
+  private static final byte FLOAT = 5;
+  private static final byte BOOLEAN = 6;
+
+  private final Map<String, Shape> shapes = new HashMap<>();
+  @Nullable
+  private final KeyTransform keyTransform;
+  private final AppboyIntegrationMetrics metrics;
+
+  PropertyShapes(@Nullable KeyTransform keyTransform, AppboyIntegrationMetrics metrics) {
+    this.keyTransform = keyTransform;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Writes {@code properties} to {@code sink} if they have the shape remembered for
+   * {@code event}, and returns false without touching the sink otherwise. On a miss the shape of
+   * {@code properties} is remembered for the next event with that name.
+   */
+  boolean write(String event, Map<String, Object> properties, Sink sink) {
+    Shape shape = shapes.get(event);
+    if (shape != null && shape.matches(properties)) {
+      shape.write(properties, sink);
+      metrics.propertyShapeHits.incrementAndGet();
+      return true;
+    }
+    metrics.propertyShapeMisses.incrementAndGet();
+    if (shape != null || shapes.size() < MAX_EVENTS) {
+      Shape learned = Shape.of(properties, keyTransform);
+      if (learned != null) {
+        shapes.put(event, learned);
+      } else if (shape != null) {
+        shapes.remove(event);
+      }
+    }
+    return false;
+  }
+
+  private static byte typeOf(@Nullable Object value) {
+    if (value instanceof String) {
+      return STRING;
+    } else if (value instanceof Integer) {
+      return INT;
+    } else if (value instanceof Long) {
+      return LONG;
+    } else if (value instanceof Double) {
+      return DOUBLE;
+    } else if (value instanceof Float) {
+      return FLOAT;
+    } else if (value instanceof Boolean) {
+      return BOOLEAN;
+    }
+    return UNSUPPORTED;
+  }
+
+  private static final class Shape {
+    final String[] keys;
+    /** The keys to write to Braze; null for keys that are dropped. */
+    final String[] brazeKeys;
+    final byte[] types;
+
+    private Shape(String[] keys, String[] brazeKeys, byte[] types) {
+      this.keys = keys;
+      this.brazeKeys = brazeKeys;
+      this.types = types;
+    }
+
+    @Nullable
+    static Shape of(Map<String, Object> properties, @Nullable KeyTransform keyTransform) {
+      String[] keys = new String[properties.size()];
+      String[] brazeKeys = keyTransform != null ? new String[keys.length] : keys;
+      byte[] types = new byte[keys.length];
+      int i = 0;
+      for (Map.Entry<String, Object> entry : properties.entrySet()) {
+        byte type = typeOf(entry.getValue());
+        if (type == UNSUPPORTED) {
+          return null;
+        }
+        keys[i] = entry.getKey();
+        if (keyTransform != null) {
+          brazeKeys[i] = keyTransform.apply(keys[i]);
+        }
+        types[i] = type;
+        i++;
+      }
+      return new Shape(keys, brazeKeys, types);
+    }
+
+    boolean matches(Map<String, Object> properties) {
+      if (properties.size() != keys.length) {
+        return false;
+      }
+      for (int i = 0; i < keys.length; i++) {
+        if (typeOf(properties.get(keys[i])) != types[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void write(Map<String, Object> properties, Sink sink) {
+      for (int i = 0; i < keys.length; i++) {
+        String key = brazeKeys[i];
+        if (key == null) {
+          continue;
+        }
+        Object value = properties.get(keys[i]);
+        switch (types[i]) {
+          case STRING:
+            sink.add(key, (String) value);
+            break;
+          case INT:
+            sink.add(key, (int) (Integer) value);
+            break;
+          case LONG:
+            sink.add(key, (long) (Long) value);
+            break;
+          case DOUBLE:
+            sink.add(key, (double) (Double) value);
+            break;
+          case FLOAT:
+            sink.add(key, (double) (Float) value);
+            break;
+          default:
+            sink.add(key, (boolean) (Boolean) value);
+            break;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import androidx.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the e-commerce fields of a track call straight from the properties map, with the same
+ * coercion rules as Segment's {@code Properties}, but without building intermediate
+ * {@code Properties.Product} instances.
+ */
+final class PurchaseFields {
+
+  static final String REVENUE_KEY = "revenue";
+  static final String CURRENCY_KEY = "currency";
+  static final String PRODUCTS_KEY = "products";
+  private static final String PRODUCT_ID_KEY = "id";
+  private static final String PRICE_KEY = "price";
+
+  private PurchaseFields() {
+  }
+
+  static double revenue(Map<String, Object> properties) {
+    return coerceToDouble(properties.get(REVENUE_KEY));
+  }
+
+  @Nullable
+  static String currency(Map<String, Object> properties) {
+    return coerceToString(properties.get(CURRENCY_KEY));
+  }
+
+  /**
+   * Returns the raw products list, or null if the properties have none. Entries that are not maps
+   * are ignored by {@link #productId(Object)} and {@link #price(Object)} callers.
+   */
+  @Nullable
+  static List<?> products(Map<String, Object> properties) {
+    Object products = properties.get(PRODUCTS_KEY);
+    return products instanceof List ? (List<?>) products : null;
+  }
+
+  static boolean isProduct(Object product) {
+    return product instanceof Map;
+  }
+
+  @Nullable
+  static String productId(Object product) {
+    return coerceToString(((Map<?, ?>) product).get(PRODUCT_ID_KEY));
+  }
+
+  static double price(Object product) {
+    return coerceToDouble(((Map<?, ?>) product).get(PRICE_KEY));
+  }
+
+  private static double coerceToDouble(@Nullable Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    if (value instanceof String) {
+      try {
+        return Double.parseDouble((String) value);
+      } catch (NumberFormatException ignored) {
+        return 0;
+      }
+    }
+    return 0;
+  }
+
+  @Nullable
+  private static String coerceToString(@Nullable Object value) {
+    if (value instanceof String) {
+      return (String) value;
+    }
+    return value != null ? String.valueOf(value) : null;
+  }
+}
@@ -0,0 +1,80 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import androidx.annotation.Nullable;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Decides whether a push token has to be registered with Braze again. Only a hash of the user and
+ * token last registered is persisted, so the token itself isn't stored a second time; the last
+ * pair seen is also kept in memory so repeated calls with the same token don't hash it again.
+ */
+class PushTokenRegistration {
+
+  /** Persists the hash of the last registered user and token. */
+  interface Store {
+    @Nullable
+    String load();
+
+    void save(String hash);
+  }
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final Store store;
+  @Nullable
+  private String lastHash;
+  private boolean loaded;
+  @Nullable
+  private String lastUserId;
+  @Nullable
+  private String lastToken;
+
+  PushTokenRegistration(Store store) {
+    this.store = store;
+  }
+
+  /**
+   * Returns whether {@code token} should be registered for {@code userId}, i.e. whether either
+   * changed since the last registration, and if so records it as registered.
+   */
+  synchronized boolean register(@Nullable String userId, String token) {
+    if (token.equals(lastToken) && (userId == null ? lastUserId == null
+        : userId.equals(lastUserId))) {
+      return false;
+    }
+    lastUserId = userId;
+    lastToken = token;
+    if (!loaded) {
+      lastHash = store.load();
+      loaded = true;
+    }
+    String hash = hash(userId, token);
+    if (hash.equals(lastHash)) {
+      return false;
+    }
+    lastHash = hash;
+    store.save(hash);
+    return true;
+  }
+
+  static String hash(@Nullable String userId, String token) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      if (userId != null) {
+        digest.update(userId.getBytes("UTF-8"));
+        digest.update((byte) 0);
+      }
+      byte[] bytes = digest.digest(token.getBytes("UTF-8"));
+      char[] hex = new char[bytes.length * 2];
+      for (int i = 0; i < bytes.length; i++) {
+        hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+        hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+      }
+      return new String(hex);
+    } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import androidx.annotation.Nullable;
+import java.util.Date;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Decodes the standard traits Braze has dedicated fields for without going through
+ * {@link java.util.Calendar} or {@code toUpperCase()}, which allocate on every identify.
+ *
+ * <p>Dates are returned packed as {@code yyyyMMdd} in an int. Timestamps are converted to a date in
+ * the default time zone current at the call, so changes to it are picked up; ISO strings without
+ * a time are taken as is.
+ * Genders are returned as one of the {@code GENDER_} constants.
+ */
+final class StandardTraitDecoder {
+
+  static final int NO_DATE = -1;
+  static final int GENDER_UNKNOWN = 0;
+  static final int GENDER_MALE = 1;
+  static final int GENDER_FEMALE = 2;
+
+  private static final long MILLIS_PER_DAY = 86400000L;
+
+  private StandardTraitDecoder() {
+  }
+
+  /**
+   * Decodes a {@link Date} or an ISO 8601 string, returning {@link #NO_DATE} otherwise. Callers
+   * may retry strings in other ISO variants with a more lenient parser.
+   */
+  static int decodeDate(@Nullable Object value) {
+    if (value instanceof Date) {
+      return localDate(((Date) value).getTime());
+    }
+    if (value instanceof String) {
+      return parseIso8601((String) value);
+    }
+    return NO_DATE;
+  }
+
+  static int year(int date) {
+    return date / 10000;
+  }
+
+  /** Returns the month of the year, from 1 to 12. */
+  static int month(int date) {
+    return date / 100 % 100;
+  }
+
+  static int day(int date) {
+    return date % 100;
+  }
+
+  static int decodeGender(@Nullable String gender) {
+    if (gender == null) {
+      return GENDER_UNKNOWN;
+    }
+    if ("M".equalsIgnoreCase(gender) || "MALE".equalsIgnoreCase(gender)) {
+      return GENDER_MALE;
+    }
+    if ("F".equalsIgnoreCase(gender) || "FEMALE".equalsIgnoreCase(gender)) {
+      return GENDER_FEMALE;
+    }
+    return GENDER_UNKNOWN;
+  }
+
+  /**
+   * Returns the {@code key} field of an address trait when it differs from the same field of the
+   * last emitted address, or {@code null} when it is missing or unchanged.
+   */
+  @Nullable
+  static String changedAddressField(@Nullable Object address, @Nullable Object lastAddress,
+      String key) {
+    if (!(address instanceof Map)) {
+      return null;
+    }
+    Object value = ((Map<?, ?>) address).get(key);
+    if (!(value instanceof String)) {
+      return null;
+    }
+    if (lastAddress instanceof Map && value.equals(((Map<?, ?>) lastAddress).get(key))) {
+      return null;
+    }
+    return (String) value;
+  }
+
+  /**
+   * Parses {@code yyyy-MM-dd}, optionally followed by {@code THH:mm[:ss[.SSS]]} and a {@code Z},
+   * {@code +hh[:]mm} or {@code -hh[:]mm} offset.
+   */
+  private static int parseIso8601(String value) {
+    int length = value.length();
+    if (length < 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+      return NO_DATE;
+    }
+    int year = digits(value, 0, 4);
+    int month = digits(value, 5, 2);
+    int day = digits(value, 8, 2);
+    if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+      return NO_DATE;
+    }
+    if (length == 10) {
+      return pack(year, month, day);
+    }
+
+    char separator = value.charAt(10);
+    if ((separator != 'T' && separator != ' ') || length < 16 || value.charAt(13) != ':') {
+      return NO_DATE;
+    }
+    int hour = digits(value, 11, 2);
+    int minute = digits(value, 14, 2);
+    int second = 0;
+    int millis = 0;
+    int i = 16;
+    if (i < length && value.charAt(i) == ':') {
+      second = digits(value, i + 1, 2);
+      i += 3;
+      if (i < length && value.charAt(i) == '.') {
+        int start = ++i;
+        while (i < length && Character.isDigit(value.charAt(i))) {
+          i++;
+        }
+        // Only milliseconds matter; further digits are ignored.
+        for (int j = start; j < start + 3; j++) {
+          millis = millis * 10 + (j < i ? value.charAt(j) - '0' : 0);
+        }
+      }
+    }
+    if (hour < 0 || minute < 0 || second < 0) {
+      return NO_DATE;
+    }
+    if (i == length) {
+      // No offset: a local date-time, whose date is already the one we want.
+      return pack(year, month, day);
+    }
+
+    int offsetMinutes;
+    char sign = value.charAt(i);
+    if (sign == 'Z' && i + 1 == length) {
+      offsetMinutes = 0;
+    } else if (sign == '+' || sign == '-') {
+      int offsetHours = digits(value, i + 1, 2);
+      int j = i + 3;
+      if (j < length && value.charAt(j) == ':') {
+        j++;
+      }
+      int offsetMins = j >= length ? 0 : (j + 2 == length ? digits(value, j, 2) : -1);
+      if (offsetHours < 0 || offsetMins < 0) {
+        return NO_DATE;
+      }
+      offsetMinutes = (offsetHours * 60 + offsetMins) * (sign == '-' ? -1 : 1);
+    } else {
+      return NO_DATE;
+    }
+
+    long epochMillis = daysFromCivil(year, month, day) * MILLIS_PER_DAY
+        + ((hour * 60L + minute - offsetMinutes) * 60L + second) * 1000L + millis;
+    return localDate(epochMillis);
+  }
+
+  private static int localDate(long epochMillis) {
+    TimeZone zone = TimeZone.getDefault();
+    long localMillis = epochMillis + zone.getOffset(epochMillis);
+    return civilFromDays(floorDiv(localMillis, MILLIS_PER_DAY));
+  }
+
+  /** Returns the digits of {@code value} from {@code start} as a number, or -1. */
+  private static int digits(String value, int start, int count) {
+    if (start + count > value.length()) {
+      return -1;
+    }
+    int result = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = value.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      result = result * 10 + (c - '0');
+    }
+    return result;
+  }
+
+  /** {@code Math.floorDiv} is only available from API 24. */
+  private static long floorDiv(long x, long y) {
+    long quotient = x / y;
+    if ((x % y != 0) && ((x ^ y) < 0)) {
+      quotient--;
+    }
+    return quotient;
+  }
+
+  private static int pack(int year, int month, int day) {
+    return year * 10000 + month * 100 + day;
+  }
+
+  // Days since 1970-01-01 from a proleptic Gregorian date and back, after Howard Hinnant's
+  // "chrono-compatible low-level date algorithms".
+
+  private static long daysFromCivil(int year, int month, int day) {
+    long y = month <= 2 ? year - 1 : year;
+    long era = floorDiv(y, 400);
+    long yearOfEra = y - era * 400;
+    long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  private static int civilFromDays(long days) {
+    days += 719468;
+    long era = floorDiv(days, 146097);
+    long dayOfEra = days - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long mp = (5 * dayOfYear + 2) / 153;
+    int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+    int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+    int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+    return pack(year, month, day);
+  }
+}
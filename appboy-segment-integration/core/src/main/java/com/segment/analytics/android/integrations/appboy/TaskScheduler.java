@@ -0,0 +1,13 @@
+package com.segment.analytics.android.integrations.appboy;
+
+/**
+ * Schedules deferred work for the integration. All tasks are expected to run on the same thread
+ * the integration callbacks are delivered on.
+ */
+interface TaskScheduler {
+  void schedule(Runnable task, long delayMillis);
+
+  void cancel(Runnable task);
+
+  long uptimeMillis();
+}
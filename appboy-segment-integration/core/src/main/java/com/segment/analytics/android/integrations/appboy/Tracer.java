@@ -0,0 +1,22 @@
+package com.segment.analytics.android.integrations.appboy;
+
+/**
+ * Marks sections of the integration's work so they show up in trace tooling. Sections nest and are
+ * always ended on the thread that began them.
+ */
+public interface Tracer {
+
+  Tracer NONE = new Tracer() {
+    @Override
+    public void beginSection(String name) {
+    }
+
+    @Override
+    public void endSection() {
+    }
+  };
+
+  void beginSection(String name);
+
+  void endSection();
+}
@@ -0,0 +1,48 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import androidx.annotation.Nullable;
+import java.util.Map;
+
+/** Finds the traits that changed since the last identify sent to Braze. */
+final class TraitDiffer {
+
+  private TraitDiffer() {
+  }
+
+  /**
+   * Puts into {@code diffed} every trait whose value differs from {@code lastEmittedTraits}, and
+   * returns it. Numbers of different types are equal when their double values are, since a trait
+   * read back from the JSON cache may not keep its original type. Without a last emitted state,
+   * {@code traits} itself is returned.
+   */
+  static <M extends Map<String, Object>> M diff(M traits,
+      @Nullable Map<String, Object> lastEmittedTraits, M diffed) {
+    if (lastEmittedTraits == null) return traits;
+
+    for (Map.Entry<String, Object> trait : traits.entrySet()) {
+      Object storedValue = lastEmittedTraits.get(trait.getKey());
+
+      if (storedValue != null) {
+        boolean areEqual = trait.getValue().equals(storedValue)
+            || haveSameNumberValue(trait.getValue(), storedValue);
+        if (areEqual) {
+          continue;
+        }
+      }
+
+      diffed.put(trait.getKey(), trait.getValue());
+    }
+
+    return diffed;
+  }
+
+  private static boolean haveSameNumberValue(Object o1, Object o2) {
+    if (o1 instanceof Number && o2 instanceof Number) {
+      Number n1 = (Number) o1;
+      Number n2 = (Number) o2;
+      return n1.doubleValue() == n2.doubleValue();
+    } else {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers when each trait was last sent to Braze, so traits the diffing cache has held back for
+ * longer than a TTL can be sent again, a few at a time. This bounds how long a value changed on
+ * the Braze side, or an SDK write that got lost, stays uncorrected. Times are wall clock millis,
+ * since they have to survive restarts.
+ */
+class TraitResync {
+
+  /** Persists the last-sent times of the current user's traits. */
+  interface Store {
+    Map<String, Long> load();
+
+    void put(Map<String, Long> sentAt);
+
+    void remove(Collection<String> keys);
+
+    void clear();
+  }
+
+  private final Store store;
+  private final long ttlMillis;
+  private final int batchSize;
+  private Map<String, Long> sentAt;
+
+  TraitResync(Store store, long ttlMillis, int batchSize) {
+    this.store = store;
+    this.ttlMillis = ttlMillis;
+    this.batchSize = batchSize;
+  }
+
+  /** Records that {@code keys} were sent at {@code now}. */
+  synchronized void markSent(Collection<String> keys, long now) {
+    if (keys.isEmpty()) {
+      return;
+    }
+    Map<String, Long> changed = new HashMap<>();
+    Long time = now;
+    for (String key : keys) {
+      changed.put(key, time);
+    }
+    sentAt().putAll(changed);
+    store.put(changed);
+  }
+
+  /**
+   * Starts the clock at {@code now} for those of {@code keys} that have no last-sent time yet,
+   * e.g. traits restored from the diffing cache.
+   */
+  synchronized void markKnown(Collection<String> keys, long now) {
+    Map<String, Long> sentAt = sentAt();
+    Map<String, Long> added = null;
+    for (String key : keys) {
+      if (!sentAt.containsKey(key)) {
+        if (added == null) {
+          added = new HashMap<>();
+        }
+        added.put(key, now);
+      }
+    }
+    if (added != null) {
+      sentAt.putAll(added);
+      store.put(added);
+    }
+  }
+
+  /** Returns up to one batch of the keys sent longest ago, of those sent more than a TTL ago. */
+  synchronized List<String> staleKeys(long now) {
+    final Map<String, Long> sentAt = sentAt();
+    List<String> stale = new ArrayList<>();
+    for (Map.Entry<String, Long> entry : sentAt.entrySet()) {
+      if (now - entry.getValue() >= ttlMillis) {
+        stale.add(entry.getKey());
+      }
+    }
+    if (stale.size() > batchSize) {
+      Collections.sort(stale, new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+          long difference = sentAt.get(a) - sentAt.get(b);
+          return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+        }
+      });
+      stale = new ArrayList<>(stale.subList(0, batchSize));
+    }
+    return stale;
+  }
+
+  /** Forgets keys that are no longer traits of the user. */
+  synchronized void forget(Collection<String> keys) {
+    if (keys.isEmpty()) {
+      return;
+    }
+    sentAt().keySet().removeAll(keys);
+    store.remove(keys);
+  }
+
+  /** Called when the Braze user changes or is reset. */
+  synchronized void clear() {
+    sentAt = new HashMap<>();
+    store.clear();
+  }
+
+  private Map<String, Long> sentAt() {
+    if (sentAt == null) {
+      sentAt = new HashMap<>(store.load());
+    }
+    return sentAt;
+  }
+}
@@ -0,0 +1,21 @@
+package com.segment.analytics.android.integrations.appboy;
+
+/** What to do with event names, keys and values that exceed Braze's limits. */
+public enum ValidationPolicy {
+  /**
+   * Shorten names, keys and string values to the limit, and leave out the properties that no
+   * longer fit once the payload is too large.
+   */
+  TRUNCATE,
+  /**
+   * Leave out the offending property or custom attribute. Events whose name is too long are
+   * dropped, except purchases, whose name is truncated.
+   */
+  DROP_KEY,
+  /**
+   * Drop the whole event. For identify, where the user itself must still be updated, only the
+   * offending custom attributes are left out; purchases are never dropped either, but logged
+   * without the offending properties and with a truncated name.
+   */
+  DROP_EVENT
+}
@@ -0,0 +1,106 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CustomAttributesTest {
+
+  @Test
+  public void mapsEachSupportedType() {
+    RecordingSink sink = new RecordingSink();
+
+    assertTrue(CustomAttributes.set(sink, "b", true));
+    assertTrue(CustomAttributes.set(sink, "i", 1));
+    assertTrue(CustomAttributes.set(sink, "l", 2L));
+    assertTrue(CustomAttributes.set(sink, "f", 1.5f));
+    assertTrue(CustomAttributes.set(sink, "d", 2.5d));
+    assertTrue(CustomAttributes.set(sink, "s", "text"));
+    assertTrue(CustomAttributes.set(sink, "date", new Date(42000L)));
+
+    assertEquals(Arrays.asList(
+        "boolean b=true", "int i=1", "long l=2", "float f=1.5", "double d=2.5", "String s=text",
+        "seconds date=42"), sink.calls);
+  }
+
+  @Test
+  public void rejectsUnsupportedTypes() {
+    RecordingSink sink = new RecordingSink();
+
+    assertFalse(CustomAttributes.set(sink, "list", Collections.singletonList("a")));
+    assertFalse(CustomAttributes.set(sink, "null", null));
+    assertEquals(0, sink.calls.size());
+  }
+
+  @Test
+  public void incrementsByDeltaAgainstCachedDouble() {
+    RecordingSink sink = new RecordingSink();
+
+    assertTrue(CustomAttributes.increment(sink, "orders", 7, 4.0d));
+    assertTrue(CustomAttributes.increment(sink, "logins", 12L, 12));
+
+    assertEquals(Collections.singletonList("increment orders+3"), sink.calls);
+  }
+
+  @Test
+  public void fallsBackForResetsAndNonCounters() {
+    RecordingSink sink = new RecordingSink();
+
+    assertFalse(CustomAttributes.increment(sink, "orders", 2, 5));
+    assertFalse(CustomAttributes.increment(sink, "orders", 5, null));
+    assertFalse(CustomAttributes.increment(sink, "orders", 5.5d, 2));
+    assertFalse(CustomAttributes.increment(sink, "orders", Long.MAX_VALUE, 0));
+    assertEquals(0, sink.calls.size());
+  }
+
+  private static class RecordingSink implements CustomAttributes.Sink {
+    final List<String> calls = new ArrayList<>();
+
+    @Override
+    public void set(String key, boolean value) {
+      calls.add("boolean " + key + "=" + value);
+    }
+
+    @Override
+    public void set(String key, int value) {
+      calls.add("int " + key + "=" + value);
+    }
+
+    @Override
+    public void set(String key, long value) {
+      calls.add("long " + key + "=" + value);
+    }
+
+    @Override
+    public void set(String key, float value) {
+      calls.add("float " + key + "=" + value);
+    }
+
+    @Override
+    public void set(String key, double value) {
+      calls.add("double " + key + "=" + value);
+    }
+
+    @Override
+    public void set(String key, String value) {
+      calls.add("String " + key + "=" + value);
+    }
+
+    @Override
+    public void setToSecondsFromEpoch(String key, long secondsFromEpoch) {
+      calls.add("seconds " + key + "=" + secondsFromEpoch);
+    }
+
+    @Override
+    public void increment(String key, int delta) {
+      calls.add("increment " + key + "+" + delta);
+    }
+  }
+}
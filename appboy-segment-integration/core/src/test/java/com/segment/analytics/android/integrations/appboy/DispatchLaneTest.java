@@ -0,0 +1,77 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DispatchLaneTest {
+
+  private final FakeScheduler scheduler = new FakeScheduler();
+  private final AtomicLong dropped = new AtomicLong();
+  private final DispatchLane lane = new DispatchLane(scheduler, 2, 5000, dropped);
+  private final List<String> sent = new ArrayList<>();
+
+  @Test
+  public void holdsCallsUntilScheduledFlush() {
+    lane.submit(call("a"));
+    lane.submit(call("b"));
+
+    assertEquals(0, sent.size());
+    assertEquals(5000, scheduler.delayMillis);
+
+    scheduler.task.run();
+
+    assertEquals(Arrays.asList("a", "b"), sent);
+    assertEquals(0, lane.size());
+  }
+
+  @Test
+  public void dropsOldestWhenFull() {
+    lane.submit(call("a"));
+    lane.submit(call("b"));
+    lane.submit(call("c"));
+
+    lane.flush();
+
+    assertEquals(Arrays.asList("b", "c"), sent);
+    assertEquals(1, dropped.get());
+    assertNull(scheduler.task);
+  }
+
+  private Runnable call(final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        sent.add(name);
+      }
+    };
+  }
+
+  private static class FakeScheduler implements TaskScheduler {
+    Runnable task;
+    long delayMillis;
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+      this.task = task;
+      this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+      if (this.task == task) {
+        this.task = null;
+      }
+    }
+
+    @Override
+    public long uptimeMillis() {
+      return 0;
+    }
+  }
+}
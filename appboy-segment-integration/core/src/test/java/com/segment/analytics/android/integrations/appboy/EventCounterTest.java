@@ -0,0 +1,88 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EventCounterTest {
+
+  private final FakeScheduler scheduler = new FakeScheduler();
+  private final List<String> added = new ArrayList<>();
+  private final EventCounter counter = new EventCounter(
+      Arrays.asList("Article Read", "Search Performed"), scheduler, 30000,
+      new EventCounter.Sink() {
+        @Override
+        public void add(String event, long count) {
+          added.add(event + "=" + count);
+        }
+      });
+
+  @Test
+  public void flushAddsCountsOncePerEvent() {
+    counter.count("Article Read");
+    counter.count("Article Read");
+    counter.count("Search Performed");
+    counter.count("Other");
+
+    counter.flush();
+    counter.flush();
+
+    assertEquals(Arrays.asList("Article Read=2", "Search Performed=1"), added);
+  }
+
+  @Test
+  public void schedulesOneFlushPerBatch() {
+    counter.count("Article Read");
+    Runnable task = scheduler.task;
+    counter.count("Article Read");
+
+    assertSame(task, scheduler.task);
+    assertEquals(1, scheduler.scheduled);
+    assertEquals(30000, scheduler.delayMillis);
+
+    task.run();
+
+    assertNull(scheduler.task);
+    assertEquals(Arrays.asList("Article Read=2"), added);
+
+    counter.count("Search Performed");
+    assertEquals(2, scheduler.scheduled);
+  }
+
+  @Test
+  public void uncountedEventsDoNotScheduleFlush() {
+    counter.count("Other");
+
+    assertEquals(0, scheduler.scheduled);
+  }
+
+  private static class FakeScheduler implements TaskScheduler {
+    Runnable task;
+    long delayMillis;
+    int scheduled;
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+      this.task = task;
+      this.delayMillis = delayMillis;
+      scheduled++;
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+      if (this.task == task) {
+        this.task = null;
+      }
+    }
+
+    @Override
+    public long uptimeMillis() {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FlushBackoffTest {
+
+  private final AppboyIntegrationMetrics metrics = new AppboyIntegrationMetrics();
+  private final FlushBackoff backoff = new FlushBackoff(1000, 4000, new FixedRandom(0.5), metrics);
+
+  @Test
+  public void flushesFreelyWithoutFailures() {
+    assertEquals(0, backoff.tryFlush(0));
+    assertEquals(0, backoff.tryFlush(1));
+    assertEquals(0, metrics.getHeldBackFlushes());
+  }
+
+  @Test
+  public void delayDoublesWithJitterUpToMax() {
+    backoff.onFailure(0);
+    assertEquals(750, metrics.getFlushBackoffMillis());
+    backoff.onFailure(0);
+    assertEquals(1500, metrics.getFlushBackoffMillis());
+    backoff.onFailure(0);
+    assertEquals(3000, metrics.getFlushBackoffMillis());
+    backoff.onFailure(0);
+    assertEquals(3000, metrics.getFlushBackoffMillis());
+    assertEquals(4, metrics.getConsecutiveNetworkFailures());
+  }
+
+  @Test
+  public void holdsBackUntilDelayThenProbesAndResets() {
+    backoff.onFailure(0);
+
+    assertEquals(500, backoff.tryFlush(250));
+    assertEquals(0, backoff.tryFlush(750));
+    assertEquals(750, backoff.tryFlush(750));
+    assertEquals(0, backoff.tryFlush(1500));
+
+    assertEquals(0, metrics.getConsecutiveNetworkFailures());
+    assertEquals(0, metrics.getFlushBackoffMillis());
+    assertEquals(2, metrics.getHeldBackFlushes());
+    assertEquals(0, backoff.tryFlush(1501));
+  }
+
+  @Test
+  public void failureDuringProbeKeepsBackingOff() {
+    backoff.onFailure(0);
+    assertEquals(0, backoff.tryFlush(750));
+
+    backoff.onFailure(800);
+
+    assertEquals(1500, backoff.tryFlush(800));
+    assertEquals(0, backoff.tryFlush(2300));
+    assertEquals(2, metrics.getConsecutiveNetworkFailures());
+  }
+
+  private static class FixedRandom extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private final double value;
+
+    FixedRandom(double value) {
+      this.value = value;
+    }
+
+    @Override
+    public double nextDouble() {
+      return value;
+    }
+  }
+}
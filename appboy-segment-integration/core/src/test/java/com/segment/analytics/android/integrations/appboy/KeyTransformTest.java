@@ -0,0 +1,53 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class KeyTransformTest {
+
+  @Test
+  public void convertsToSnakeCase() {
+    assertEquals("orders_count", KeyTransform.toSnakeCase("ordersCount"));
+    assertEquals("order_id", KeyTransform.toSnakeCase("orderID"));
+    assertEquals("http_status_code", KeyTransform.toSnakeCase("HTTPStatusCode"));
+    assertEquals("plan_name", KeyTransform.toSnakeCase("plan_Name"));
+    assertEquals("address2_line", KeyTransform.toSnakeCase("address2Line"));
+  }
+
+  @Test
+  public void keysWithoutUpperCaseAreReturnedAsIs() {
+    String key = "orders_count";
+
+    assertSame(key, KeyTransform.toSnakeCase(key));
+  }
+
+  @Test
+  public void explicitRenamesAndDropsWinOverSnakeCase() {
+    KeyTransform transform = new KeyTransform(Collections.singletonMap("planName", "tier"),
+        Collections.singleton("internalId"), true);
+
+    assertEquals("tier", transform.apply("planName"));
+    assertNull(transform.apply("internalId"));
+    assertEquals("orders_count", transform.apply("ordersCount"));
+  }
+
+  @Test
+  public void convertedKeysAreCached() {
+    KeyTransform transform = new KeyTransform(Collections.<String, String>emptyMap(),
+        Collections.<String>emptySet(), true);
+
+    assertSame(transform.apply("ordersCount"), transform.apply("ordersCount"));
+  }
+
+  @Test
+  public void withoutSnakeCaseOtherKeysPassThrough() {
+    KeyTransform transform = new KeyTransform(Collections.<String, String>emptyMap(),
+        Collections.singleton("internalId"), false);
+
+    assertEquals("ordersCount", transform.apply("ordersCount"));
+  }
+}
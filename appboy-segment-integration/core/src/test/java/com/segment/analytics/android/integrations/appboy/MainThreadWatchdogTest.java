@@ -0,0 +1,112 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MainThreadWatchdogTest {
+
+  private final FakeClock clock = new FakeClock();
+  private final RecordingListener listener = new RecordingListener();
+
+  @Test
+  public void reportsCallbackOverBudgetWithSlowestPhase() {
+    MainThreadWatchdog watchdog = watchdog(Thread.currentThread());
+
+    watchdog.beginSection("Braze.identify");
+    watchdog.beginSection("Braze.loadTraits");
+    clock.advance(1000);
+    watchdog.endSection();
+    watchdog.beginSection("Braze.diffTraits");
+    watchdog.beginSection("Braze.nested");
+    clock.advance(2500);
+    watchdog.endSection();
+    watchdog.endSection();
+    clock.advance(500);
+    watchdog.endSection();
+
+    assertEquals(1, listener.reports.size());
+    assertEquals("Braze.identify 4000 Braze.diffTraits 2500", listener.reports.get(0));
+  }
+
+  @Test
+  public void ignoresCallbacksWithinBudget() {
+    MainThreadWatchdog watchdog = watchdog(Thread.currentThread());
+
+    watchdog.beginSection("Braze.onActivityStarted");
+    clock.advance(2000);
+    watchdog.endSection();
+
+    assertEquals(0, listener.reports.size());
+  }
+
+  @Test
+  public void reportsCallbackWithoutPhases() {
+    MainThreadWatchdog watchdog = watchdog(Thread.currentThread());
+
+    watchdog.beginSection("Braze.flush");
+    clock.advance(3000);
+    watchdog.endSection();
+
+    assertEquals("Braze.flush 3000 null 0", listener.reports.get(0));
+  }
+
+  @Test
+  public void ignoresOtherThreads() {
+    CountingTracer delegate = new CountingTracer();
+    MainThreadWatchdog watchdog = new MainThreadWatchdog(delegate, new Thread(), 2000, listener,
+        clock);
+
+    watchdog.beginSection("Braze.track");
+    clock.advance(5000);
+    watchdog.endSection();
+
+    assertEquals(0, listener.reports.size());
+    assertEquals(1, delegate.begun);
+    assertEquals(1, delegate.ended);
+  }
+
+  private MainThreadWatchdog watchdog(Thread mainThread) {
+    return new MainThreadWatchdog(Tracer.NONE, mainThread, 2000, listener, clock);
+  }
+
+  private static class FakeClock implements MainThreadWatchdog.Clock {
+    long now;
+
+    void advance(long nanos) {
+      now += nanos;
+    }
+
+    @Override
+    public long nanoTime() {
+      return now;
+    }
+  }
+
+  private static class RecordingListener implements MainThreadBudgetListener {
+    final List<String> reports = new ArrayList<>();
+
+    @Override
+    public void onBudgetExceeded(String callback, long callbackNanos, String phase,
+        long phaseNanos) {
+      reports.add(callback + " " + callbackNanos + " " + phase + " " + phaseNanos);
+    }
+  }
+
+  private static class CountingTracer implements Tracer {
+    int begun;
+    int ended;
+
+    @Override
+    public void beginSection(String name) {
+      begun++;
+    }
+
+    @Override
+    public void endSection() {
+      ended++;
+    }
+  }
+}
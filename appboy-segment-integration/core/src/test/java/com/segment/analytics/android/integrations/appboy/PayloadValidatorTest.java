@@ -0,0 +1,134 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PayloadValidatorTest {
+
+  private final AppboyIntegrationMetrics metrics = new AppboyIntegrationMetrics();
+
+  @Test
+  public void validPropertiesNeedNoFix() {
+    PayloadValidator validator = validator(ValidationPolicy.TRUNCATE);
+
+    assertEquals(PayloadValidator.VALID, validator.checkProperties(properties("short")));
+    assertSame("Viewed", validator.eventName("Viewed"));
+    assertEquals(0, metrics.getValuesTooLong());
+  }
+
+  @Test
+  public void truncatePolicyShortensNamesKeysAndValues() {
+    PayloadValidator validator = validator(ValidationPolicy.TRUNCATE);
+    Map<String, Object> properties = properties("a long value");
+    properties.put("a longer key", 1);
+
+    assertEquals("Product Vi", validator.eventName("Product Viewed"));
+    assertEquals(PayloadValidator.FIX, validator.checkProperties(properties));
+    Map<String, Object> fixed = new LinkedHashMap<>();
+    validator.fixProperties(properties, fixed);
+
+    assertEquals("{sku=a long val, a longer k=1}", fixed.toString());
+    assertEquals(1, metrics.getNamesTooLong());
+    assertEquals(1, metrics.getKeysTooLong());
+    assertEquals(1, metrics.getValuesTooLong());
+  }
+
+  @Test
+  public void truncationKeepsSurrogatePairsWhole() {
+    PayloadValidator validator = validator(ValidationPolicy.TRUNCATE);
+
+    assertEquals("123456789", validator.eventName("123456789\uD83D\uDE00"));
+  }
+
+  @Test
+  public void dropKeyPolicyLeavesOutOffendingProperties() {
+    PayloadValidator validator = validator(ValidationPolicy.DROP_KEY);
+    Map<String, Object> properties = properties("a long value");
+    properties.put("price", 2.5d);
+
+    assertEquals(PayloadValidator.FIX, validator.checkProperties(properties));
+    Map<String, Object> fixed = new LinkedHashMap<>();
+    validator.fixProperties(properties, fixed);
+
+    assertEquals("{price=2.5}", fixed.toString());
+    assertNull(validator.eventName("Product Viewed"));
+    assertNull(validator.attributeKey("a longer key"));
+    assertEquals(1, metrics.getDroppedEvents());
+  }
+
+  @Test
+  public void dropEventPolicyDropsOversizedProperties() {
+    PayloadValidator validator = new PayloadValidator(ValidationPolicy.DROP_EVENT, 10, 40, null,
+        metrics);
+    Map<String, Object> properties = properties("value");
+    properties.put("other", "value");
+    properties.put("third", "value");
+
+    assertEquals(PayloadValidator.DROP, validator.checkProperties(properties));
+    assertEquals(1, metrics.getPropertiesTooLarge());
+    assertEquals(1, metrics.getDroppedEvents());
+  }
+
+  @Test
+  public void purchasesAreFixedInsteadOfDropped() {
+    PayloadValidator validator = validator(ValidationPolicy.DROP_EVENT);
+    Map<String, Object> properties = properties("a long value");
+    properties.put("price", 2.5d);
+    properties.put("revenue", 9.99d);
+
+    assertEquals(PayloadValidator.FIX, validator.checkPurchaseProperties(properties));
+    Map<String, Object> fixed = new LinkedHashMap<>();
+    validator.fixPurchaseProperties(properties, fixed);
+
+    assertEquals("{price=2.5}", fixed.toString());
+    assertEquals("Order Comp", validator.purchaseName("Order Completed"));
+    assertEquals(0, metrics.getDroppedEvents());
+  }
+
+  @Test
+  public void purchaseChecksSkipRevenueCurrencyAndProducts() {
+    PayloadValidator validator = validator(ValidationPolicy.DROP_EVENT);
+    Map<String, Object> properties = new LinkedHashMap<>();
+    properties.put("revenue", 9.99d);
+    properties.put("currency", "not a currency code");
+    properties.put("products", Collections.singletonList(properties("a long value")));
+
+    assertEquals(PayloadValidator.VALID, validator.checkPurchaseProperties(properties));
+    assertEquals(0, metrics.getValuesTooLong());
+  }
+
+  @Test
+  public void checksKeysAfterTransform() {
+    KeyTransform transform = new KeyTransform(
+        Collections.singletonMap("sku", "product_stock_keeping_unit"),
+        Collections.singleton("internal_long_key"), false);
+    PayloadValidator validator = new PayloadValidator(ValidationPolicy.TRUNCATE, 10,
+        PayloadValidator.BRAZE_MAX_PROPERTIES_BYTES, transform, metrics);
+    Map<String, Object> properties = properties("G-32");
+    properties.put("internal_long_key", 1);
+
+    assertEquals(PayloadValidator.FIX, validator.checkProperties(properties));
+    Map<String, Object> fixed = new LinkedHashMap<>();
+    validator.fixProperties(properties, fixed);
+
+    assertEquals("{product_st=G-32}", fixed.toString());
+    assertEquals(1, metrics.getKeysTooLong());
+  }
+
+  private PayloadValidator validator(ValidationPolicy policy) {
+    return new PayloadValidator(policy, 10, PayloadValidator.BRAZE_MAX_PROPERTIES_BYTES, null,
+        metrics);
+  }
+
+  private static Map<String, Object> properties(String sku) {
+    Map<String, Object> properties = new LinkedHashMap<>();
+    properties.put("sku", sku);
+    return properties;
+  }
+}
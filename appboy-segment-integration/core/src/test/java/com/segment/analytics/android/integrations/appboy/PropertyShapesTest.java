@@ -0,0 +1,129 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PropertyShapesTest {
+
+  private final AppboyIntegrationMetrics metrics = new AppboyIntegrationMetrics();
+  private final PropertyShapes shapes = new PropertyShapes(null, metrics);
+
+  @Test
+  public void writesTypedPropertiesOnceShapeIsKnown() {
+    RecordingSink sink = new RecordingSink();
+
+    assertFalse(shapes.write("Product Viewed", productViewed("G-32", 18.99d), sink));
+    assertTrue(shapes.write("Product Viewed", productViewed("G-33", 5d), sink));
+
+    assertEquals(Arrays.asList("String sku=G-33", "double price=5.0", "int quantity=1",
+        "boolean featured=true"), sink.calls);
+    assertEquals(1, metrics.getPropertyShapeHits());
+    assertEquals(1, metrics.getPropertyShapeMisses());
+    assertEquals(0.5d, metrics.getPropertyShapeHitRate(), 0);
+  }
+
+  @Test
+  public void changedShapeFallsBackAndIsLearned() {
+    RecordingSink sink = new RecordingSink();
+    shapes.write("Product Viewed", productViewed("G-32", 18.99d), sink);
+    Map<String, Object> withoutPrice = productViewed("G-32", 0);
+    withoutPrice.remove("price");
+    Map<String, Object> longQuantity = productViewed("G-32", 1d);
+    longQuantity.put("quantity", 1L);
+
+    assertFalse(shapes.write("Product Viewed", withoutPrice, sink));
+    assertTrue(shapes.write("Product Viewed", withoutPrice, sink));
+    assertFalse(shapes.write("Product Viewed", longQuantity, sink));
+  }
+
+  @Test
+  public void nestedPropertiesAreNeverShaped() {
+    RecordingSink sink = new RecordingSink();
+    Map<String, Object> properties = productViewed("G-32", 18.99d);
+    properties.put("products", Collections.singletonList("G-32"));
+
+    assertFalse(shapes.write("Product Viewed", properties, sink));
+    assertFalse(shapes.write("Product Viewed", properties, sink));
+    assertEquals(0, sink.calls.size());
+  }
+
+  @Test
+  public void shapesWriteTransformedKeys() {
+    PropertyShapes transformed = new PropertyShapes(new KeyTransform(
+        Collections.<String, String>emptyMap(), Collections.singleton("featured"), true), metrics);
+    RecordingSink sink = new RecordingSink();
+    Map<String, Object> properties = new LinkedHashMap<>();
+    properties.put("productSku", "G-32");
+    properties.put("featured", true);
+
+    transformed.write("Product Viewed", properties, sink);
+    assertTrue(transformed.write("Product Viewed", properties, sink));
+
+    assertEquals(Collections.singletonList("String product_sku=G-32"), sink.calls);
+  }
+
+  @Test
+  public void shapesApplySwappedRenamesToOriginalKeys() {
+    Map<String, String> renames = new LinkedHashMap<>();
+    renames.put("a", "b");
+    renames.put("b", "c");
+    PropertyShapes transformed = new PropertyShapes(new KeyTransform(renames,
+        Collections.<String>emptySet(), false), metrics);
+    RecordingSink sink = new RecordingSink();
+    Map<String, Object> properties = new LinkedHashMap<>();
+    properties.put("a", "first");
+    properties.put("b", "second");
+
+    transformed.write("Renamed", properties, sink);
+    assertTrue(transformed.write("Renamed", properties, sink));
+
+    assertEquals(Arrays.asList("String b=first", "String c=second"), sink.calls);
+  }
+
+  private static Map<String, Object> productViewed(String sku, double price) {
+    Map<String, Object> properties = new LinkedHashMap<>();
+    properties.put("sku", sku);
+    properties.put("price", price);
+    properties.put("quantity", 1);
+    properties.put("featured", true);
+    return properties;
+  }
+
+  private static class RecordingSink implements PropertyShapes.Sink {
+    final List<String> calls = new ArrayList<>();
+
+    @Override
+    public void add(String key, String value) {
+      calls.add("String " + key + "=" + value);
+    }
+
+    @Override
+    public void add(String key, int value) {
+      calls.add("int " + key + "=" + value);
+    }
+
+    @Override
+    public void add(String key, long value) {
+      calls.add("long " + key + "=" + value);
+    }
+
+    @Override
+    public void add(String key, double value) {
+      calls.add("double " + key + "=" + value);
+    }
+
+    @Override
+    public void add(String key, boolean value) {
+      calls.add("boolean " + key + "=" + value);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PushTokenRegistrationTest {
+
+  private final MemoryStore store = new MemoryStore();
+
+  @Test
+  public void registersOnlyWhenTokenOrUserChanges() {
+    PushTokenRegistration registration = new PushTokenRegistration(store);
+
+    assertTrue(registration.register("user", "token"));
+    assertFalse(registration.register("user", "token"));
+    assertTrue(registration.register("user", "new token"));
+    assertTrue(registration.register("other", "new token"));
+    assertTrue(registration.register(null, "new token"));
+    assertFalse(registration.register(null, "new token"));
+    assertEquals(4, store.saves);
+  }
+
+  @Test
+  public void remembersRegistrationAcrossInstances() {
+    new PushTokenRegistration(store).register("user", "token");
+
+    PushTokenRegistration registration = new PushTokenRegistration(store);
+
+    assertFalse(registration.register("user", "token"));
+    assertTrue(registration.register("user", "new token"));
+  }
+
+  @Test
+  public void hashSeparatesUserFromToken() {
+    assertEquals(64, PushTokenRegistration.hash("user", "token").length());
+    assertNotEquals(PushTokenRegistration.hash("ab", "c"), PushTokenRegistration.hash("a", "bc"));
+    assertNotEquals(PushTokenRegistration.hash(null, "token"),
+        PushTokenRegistration.hash("", "token"));
+  }
+
+  private static class MemoryStore implements PushTokenRegistration.Store {
+    String hash;
+    int saves;
+
+    @Override
+    public String load() {
+      return hash;
+    }
+
+    @Override
+    public void save(String hash) {
+      this.hash = hash;
+      saves++;
+    }
+  }
+}
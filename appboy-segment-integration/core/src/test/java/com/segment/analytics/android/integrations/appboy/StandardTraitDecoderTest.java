@@ -0,0 +1,96 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import org.junit.Test;
+
+import static com.segment.analytics.android.integrations.appboy.StandardTraitDecoder.GENDER_FEMALE;
+import static com.segment.analytics.android.integrations.appboy.StandardTraitDecoder.GENDER_MALE;
+import static com.segment.analytics.android.integrations.appboy.StandardTraitDecoder.GENDER_UNKNOWN;
+import static com.segment.analytics.android.integrations.appboy.StandardTraitDecoder.NO_DATE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StandardTraitDecoderTest {
+
+  @Test
+  public void decodesIsoDates() {
+    TimeZone original = TimeZone.getDefault();
+    try {
+      TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+      assertDate(1990, 5, 15, StandardTraitDecoder.decodeDate("1990-05-15"));
+      assertDate(1990, 5, 15, StandardTraitDecoder.decodeDate("1990-05-15T12:00:00.000Z"));
+      assertDate(1990, 5, 15, StandardTraitDecoder.decodeDate("1990-05-15T12:00:00+02:00"));
+      assertDate(2000, 2, 29, StandardTraitDecoder.decodeDate("2000-02-29T12:00Z"));
+      assertDate(1969, 12, 31, StandardTraitDecoder.decodeDate("1969-12-31T12:00:00-0500"));
+    } finally {
+      TimeZone.setDefault(original);
+    }
+  }
+
+  @Test
+  public void decodesDatesInDefaultTimeZone() {
+    Calendar calendar = Calendar.getInstance(Locale.US);
+    calendar.clear();
+    calendar.set(1985, Calendar.JANUARY, 1, 0, 30);
+
+    assertDate(1985, 1, 1, StandardTraitDecoder.decodeDate(calendar.getTime()));
+  }
+
+  @Test
+  public void followsChangesToDefaultTimeZone() {
+    TimeZone original = TimeZone.getDefault();
+    try {
+      TimeZone.setDefault(TimeZone.getTimeZone("GMT+02:00"));
+      assertDate(1990, 5, 16, StandardTraitDecoder.decodeDate("1990-05-15T23:00:00Z"));
+
+      TimeZone.setDefault(TimeZone.getTimeZone("GMT-02:00"));
+      assertDate(1990, 5, 15, StandardTraitDecoder.decodeDate("1990-05-15T23:00:00Z"));
+    } finally {
+      TimeZone.setDefault(original);
+    }
+  }
+
+  @Test
+  public void rejectsMalformedDates() {
+    assertEquals(NO_DATE, StandardTraitDecoder.decodeDate("yesterday"));
+    assertEquals(NO_DATE, StandardTraitDecoder.decodeDate("1990-05"));
+    assertEquals(NO_DATE, StandardTraitDecoder.decodeDate("1990-13-01"));
+    assertEquals(NO_DATE, StandardTraitDecoder.decodeDate(19900515));
+    assertEquals(NO_DATE, StandardTraitDecoder.decodeDate(null));
+  }
+
+  @Test
+  public void decodesGenderIgnoringCase() {
+    assertEquals(GENDER_MALE, StandardTraitDecoder.decodeGender("m"));
+    assertEquals(GENDER_MALE, StandardTraitDecoder.decodeGender("Male"));
+    assertEquals(GENDER_FEMALE, StandardTraitDecoder.decodeGender("F"));
+    assertEquals(GENDER_FEMALE, StandardTraitDecoder.decodeGender("female"));
+    assertEquals(GENDER_UNKNOWN, StandardTraitDecoder.decodeGender("other"));
+    assertEquals(GENDER_UNKNOWN, StandardTraitDecoder.decodeGender(null));
+  }
+
+  @Test
+  public void skipsUnchangedAddressFields() {
+    Map<String, Object> address = new HashMap<>();
+    address.put("city", "Barcelona");
+    address.put("country", "ES");
+    Map<String, Object> lastAddress = new HashMap<>();
+    lastAddress.put("city", "Madrid");
+    lastAddress.put("country", "ES");
+
+    assertEquals("Barcelona",
+        StandardTraitDecoder.changedAddressField(address, lastAddress, "city"));
+    assertNull(StandardTraitDecoder.changedAddressField(address, lastAddress, "country"));
+    assertEquals("ES", StandardTraitDecoder.changedAddressField(address, null, "country"));
+  }
+
+  private static void assertDate(int year, int month, int day, int date) {
+    assertEquals(year, StandardTraitDecoder.year(date));
+    assertEquals(month, StandardTraitDecoder.month(date));
+    assertEquals(day, StandardTraitDecoder.day(date));
+  }
+}
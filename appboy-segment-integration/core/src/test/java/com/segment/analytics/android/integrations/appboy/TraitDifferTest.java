@@ -0,0 +1,48 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TraitDifferTest {
+
+  @Test
+  public void keepsOnlyChangedAndNewTraits() {
+    Map<String, Object> last = new HashMap<>();
+    last.put("plan", "free");
+    last.put("visits", 3);
+    Map<String, Object> traits = new LinkedHashMap<>();
+    traits.put("plan", "pro");
+    traits.put("visits", 3);
+    traits.put("email", "a@b.c");
+
+    Map<String, Object> diffed = TraitDiffer.diff(traits, last, new HashMap<String, Object>());
+
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("plan", "pro");
+    expected.put("email", "a@b.c");
+    assertEquals(expected, diffed);
+  }
+
+  @Test
+  public void treatsNumbersOfDifferentTypesAsEqual() {
+    Map<String, Object> last = new HashMap<>();
+    last.put("visits", 3.0d);
+    Map<String, Object> traits = new HashMap<>();
+    traits.put("visits", 3);
+
+    assertEquals(0, TraitDiffer.diff(traits, last, new HashMap<String, Object>()).size());
+  }
+
+  @Test
+  public void returnsAllTraitsWithoutLastEmittedState() {
+    Map<String, Object> traits = new HashMap<>();
+    traits.put("plan", "pro");
+
+    assertSame(traits, TraitDiffer.diff(traits, null, new HashMap<String, Object>()));
+  }
+}
@@ -0,0 +1,82 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraitResyncTest {
+
+  private final MemoryStore store = new MemoryStore();
+  private final TraitResync resync = new TraitResync(store, 1000, 2);
+
+  @Test
+  public void returnsOldestStaleKeysFirst() {
+    resync.markSent(Arrays.asList("c"), 300);
+    resync.markSent(Arrays.asList("a"), 100);
+    resync.markSent(Arrays.asList("b"), 200);
+    resync.markSent(Arrays.asList("d"), 900);
+
+    assertEquals(Arrays.asList("a", "b"), resync.staleKeys(1300));
+    assertEquals(Collections.singletonList("a"), resync.staleKeys(1100));
+    assertTrue(resync.staleKeys(1099).isEmpty());
+  }
+
+  @Test
+  public void markKnownKeepsExistingTimes() {
+    resync.markSent(Arrays.asList("a"), 100);
+    resync.markKnown(Arrays.asList("a", "b"), 500);
+
+    assertEquals(100L, (long) store.sentAt.get("a"));
+    assertEquals(500L, (long) store.sentAt.get("b"));
+  }
+
+  @Test
+  public void loadsTimesFromStore() {
+    store.sentAt.put("a", 0L);
+
+    assertEquals(Collections.singletonList("a"), new TraitResync(store, 1000, 2).staleKeys(1000));
+  }
+
+  @Test
+  public void forgetAndClearRemoveTimes() {
+    resync.markSent(Arrays.asList("a", "b"), 0);
+    resync.forget(Collections.singletonList("a"));
+
+    assertEquals(Collections.singletonList("b"), resync.staleKeys(1000));
+
+    resync.clear();
+
+    assertTrue(resync.staleKeys(1000).isEmpty());
+    assertTrue(store.sentAt.isEmpty());
+  }
+
+  private static class MemoryStore implements TraitResync.Store {
+    final Map<String, Long> sentAt = new HashMap<>();
+
+    @Override
+    public Map<String, Long> load() {
+      return new HashMap<>(sentAt);
+    }
+
+    @Override
+    public void put(Map<String, Long> sentAt) {
+      this.sentAt.putAll(sentAt);
+    }
+
+    @Override
+    public void remove(Collection<String> keys) {
+      sentAt.keySet().removeAll(keys);
+    }
+
+    @Override
+    public void clear() {
+      sentAt.clear();
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.os.Build;
+import android.os.Trace;
+
+/** Writes sections to {@link Trace}, which is only available from API 18. */
+public final class AndroidTracer implements Tracer {
+
+  public static final AndroidTracer INSTANCE = new AndroidTracer();
+
+  private final boolean enabled = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+  private AndroidTracer() {
+  }
+
+  @Override
+  public void beginSection(String name) {
+    if (enabled) {
+      Trace.beginSection(name);
+    }
+  }
+
+  @Override
+  public void endSection() {
+    if (enabled) {
+      Trace.endSection();
+    }
+  }
+}
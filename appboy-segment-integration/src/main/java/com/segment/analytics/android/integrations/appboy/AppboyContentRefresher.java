@@ -0,0 +1,104 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import androidx.annotation.Nullable;
+import com.appboy.IAppboy;
+
+/**
+ * Refreshes content cards and the news feed through the integration instead of calling Braze
+ * directly, so screens that each ask for a refresh don't each cause a network request. A refresh
+ * only goes to the network if the last one was at least {@code minIntervalMillis} ago; otherwise
+ * it is served from Braze's local cache. Content can also be prefetched whenever a new Braze
+ * session opens.
+ *
+ * <p>Create one instance, keep it where your screens can reach it and pass it to
+ * {@link AppboyIntegrationOptions.Builder#contentRefresher(AppboyContentRefresher)}. Refreshes
+ * requested before the integration is created are sent once it is.
+ */
+public class AppboyContentRefresher {
+
+  private static final long NEVER = Long.MIN_VALUE;
+
+  private final long minIntervalMillis;
+  private final boolean prefetchContentCards;
+  private final boolean prefetchFeed;
+
+  @Nullable
+  private IAppboy appboy;
+  @Nullable
+  private TaskScheduler scheduler;
+  private long contentCardsRefreshedAt = NEVER;
+  private long feedRefreshedAt = NEVER;
+  private boolean contentCardsPending;
+  private boolean feedPending;
+
+  /**
+   * @param minIntervalMillis minimum time between two network refreshes of the same content
+   * @param prefetchContentCards whether to refresh content cards when a session opens
+   * @param prefetchFeed whether to refresh the news feed when a session opens
+   */
+  public AppboyContentRefresher(long minIntervalMillis, boolean prefetchContentCards,
+      boolean prefetchFeed) {
+    if (minIntervalMillis < 0) {
+      throw new IllegalArgumentException("minIntervalMillis must be >= 0");
+    }
+    this.minIntervalMillis = minIntervalMillis;
+    this.prefetchContentCards = prefetchContentCards;
+    this.prefetchFeed = prefetchFeed;
+  }
+
+  /** Refreshes content cards from the network, or from the cache if that was done recently. */
+  public synchronized void refreshContentCards() {
+    if (appboy == null) {
+      contentCardsPending = true;
+      return;
+    }
+    long now = scheduler.uptimeMillis();
+    boolean fromCache = isRecent(contentCardsRefreshedAt, now);
+    if (!fromCache) {
+      contentCardsRefreshedAt = now;
+    }
+    appboy.requestContentCardsRefresh(fromCache);
+  }
+
+  /** Refreshes the news feed from the network, or from the cache if that was done recently. */
+  public synchronized void refreshFeed() {
+    if (appboy == null) {
+      feedPending = true;
+      return;
+    }
+    long now = scheduler.uptimeMillis();
+    if (isRecent(feedRefreshedAt, now)) {
+      appboy.requestFeedRefreshFromCache();
+    } else {
+      feedRefreshedAt = now;
+      appboy.requestFeedRefresh();
+    }
+  }
+
+  synchronized void attach(IAppboy appboy, TaskScheduler scheduler) {
+    this.appboy = appboy;
+    this.scheduler = scheduler;
+    if (contentCardsPending) {
+      contentCardsPending = false;
+      refreshContentCards();
+    }
+    if (feedPending) {
+      feedPending = false;
+      refreshFeed();
+    }
+  }
+
+  /** Called when the integration opened a new Braze session. */
+  synchronized void onSessionOpened() {
+    if (prefetchContentCards) {
+      refreshContentCards();
+    }
+    if (prefetchFeed) {
+      refreshFeed();
+    }
+  }
+
+  private boolean isRecent(long refreshedAt, long now) {
+    return refreshedAt != NEVER && now - refreshedAt < minIntervalMillis;
+  }
+}
@@ -0,0 +1,46 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import androidx.annotation.Nullable;
+import com.appboy.models.outgoing.AppboyProperties;
+
+/**
+ * Collects event properties written by {@link PropertyShapes} into {@link AppboyProperties}, which
+ * are only created once the first property is added.
+ */
+class AppboyEventProperties implements PropertyShapes.Sink {
+
+  @Nullable
+  private AppboyProperties properties;
+
+  AppboyProperties get() {
+    if (properties == null) {
+      properties = new AppboyProperties();
+    }
+    return properties;
+  }
+
+  @Override
+  public void add(String key, String value) {
+    get().addProperty(key, value);
+  }
+
+  @Override
+  public void add(String key, int value) {
+    get().addProperty(key, value);
+  }
+
+  @Override
+  public void add(String key, long value) {
+    get().addProperty(key, value);
+  }
+
+  @Override
+  public void add(String key, double value) {
+    get().addProperty(key, value);
+  }
+
+  @Override
+  public void add(String key, boolean value) {
+    get().addProperty(key, value);
+  }
+}
@@ -2,6 +2,7 @@ package com.segment.analytics.android.integrations.appboy;
 
 import android.app.Activity;
 import android.content.Context;
+import android.os.Looper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
@@ -13,40 +14,50 @@ import com.appboy.configuration.AppboyConfig;
 import com.appboy.enums.Gender;
 import com.appboy.enums.Month;
 import com.appboy.enums.SdkFlavor;
+import com.appboy.events.BrazeNetworkFailureEvent;
+import com.appboy.events.IEventSubscriber;
 import com.appboy.models.outgoing.AppboyProperties;
 import com.appboy.models.outgoing.AttributionData;
 import com.appboy.support.StringUtils;
-import com.appboy.ui.inappmessage.AppboyInAppMessageManager;
 import com.segment.analytics.Analytics;
+import com.segment.analytics.Cartographer;
 import com.segment.analytics.Properties;
 import com.segment.analytics.Traits;
 import com.segment.analytics.ValueMap;
+import com.segment.analytics.integrations.BasePayload;
 import com.segment.analytics.integrations.IdentifyPayload;
 import com.segment.analytics.integrations.Integration;
 import com.segment.analytics.integrations.Logger;
 import com.segment.analytics.integrations.TrackPayload;
+import com.segment.analytics.internal.Utils;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 public class AppboyIntegration extends Integration<Appboy> {
   private static final String APPBOY_KEY = "Appboy";
-  private static final Set<String> MALE_TOKENS = new HashSet(Arrays.asList("M",
-      "MALE"));
-  private static final Set<String> FEMALE_TOKENS = new HashSet(Arrays.asList("F",
-      "FEMALE"));
+  private static final Month[] MONTHS = Month.values();
+  private static final String BIRTHDAY_KEY = "birthday";
+  private static final String ADDRESS_KEY = "address";
+  private static final String CITY_KEY = "city";
+  private static final String COUNTRY_KEY = "country";
   private static final String DEFAULT_CURRENCY_CODE = "USD";
+  private static final String CAMPAIGN_ATTRIBUTE_PREFIX = "campaign_";
   private static final String API_KEY_KEY = "apiKey";
   private static final String CUSTOM_ENDPOINT_KEY = "customEndpoint";
-  private static final String REVENUE_KEY = "revenue";
-  private static final String CURRENCY_KEY = "currency";
+  private static final String DEVICE_KEY = "device";
+  private static final String DEVICE_TOKEN_KEY = "token";
   private static final String AUTOMATIC_IN_APP_MESSAGE_REGISTRATION_ENABLED =
       "automatic_in_app_message_registration_enabled";
   private static final List<String> RESERVED_KEYS = Arrays.asList("birthday", "email", "firstName",
@@ -58,6 +69,16 @@ public class AppboyIntegration extends Integration<Appboy> {
     return new Factory() {
       @Override
       public Integration<?> create(ValueMap settings, Analytics analytics) {
+        Tracer tracer = createTracer(options);
+        tracer.beginSection("Braze.create");
+        try {
+          return create(settings, analytics, tracer);
+        } finally {
+          tracer.endSection();
+        }
+      }
+
+      private Integration<?> create(ValueMap settings, Analytics analytics, Tracer tracer) {
         Logger logger = analytics.logger(APPBOY_KEY);
         String apiKey = settings.getString(API_KEY_KEY);
         SdkFlavor flavor = SdkFlavor.SEGMENT;
@@ -77,11 +98,17 @@ public class AppboyIntegration extends Integration<Appboy> {
         }
 
         final Context applicationContext = analytics.getApplication().getApplicationContext();
-        Appboy.configure(applicationContext, builder.build());
-        Appboy appboy = Appboy.getInstance(applicationContext);
+        Appboy appboy;
+        tracer.beginSection("Braze.configure");
+        try {
+          Appboy.configure(applicationContext, builder.build());
+          appboy = Appboy.getInstance(applicationContext);
+        } finally {
+          tracer.endSection();
+        }
         logger.verbose("Configured Appboy+Segment integration and initialized Appboy.");
-        return new AppboyIntegration(applicationContext, appboy, apiKey, logger, inAppMessageRegistrationEnabled,
-            options.isTraitDiffingEnabled(), options.getUserIdMapper());
+        return new AppboyIntegration(applicationContext, appboy, apiKey, logger,
+            inAppMessageRegistrationEnabled, options, tracer);
       }
 
       @Override
@@ -97,8 +124,59 @@ public class AppboyIntegration extends Integration<Appboy> {
   private final boolean mAutomaticInAppMessageRegistrationEnabled;
   @NonNull
   private final UserIdMapper mUserIdMapper;
+  private final Set<String> mCounterTraits;
   @Nullable
   private final TraitsCache mTraitsCache;
+  @Nullable
+  private final TraitResync mTraitResync;
+  private final long mTraitResyncIntervalMillis;
+  private final Runnable mTraitResyncTask = new Runnable() {
+    @Override
+    public void run() {
+      resyncTraits();
+    }
+  };
+  private boolean mTraitResyncScheduled;
+  private volatile long mLastCallUptimeMillis;
+  private final TaskScheduler mScheduler;
+  private final Tracer mTracer;
+  @Nullable
+  private final IdentifyCoalescer mIdentifyCoalescer;
+  private final EventClassifier mEventClassifier;
+  @Nullable
+  private final EventCounter mEventCounter;
+  /**
+   * Defers and bounds custom events. Purchases, install attribution and user changes never go
+   * through a lane; they reach Braze right away, and pending bulk events are flushed before a user
+   * change so they stay with the user they were tracked for.
+   */
+  @Nullable
+  private final DispatchLane mBulkLane;
+  @Nullable
+  private final FlushBackoff mFlushBackoff;
+  private final Runnable mDeferredFlushTask = new Runnable() {
+    @Override
+    public void run() {
+      mDeferredFlushScheduled = false;
+      requestDataFlush();
+    }
+  };
+  private boolean mDeferredFlushScheduled;
+  @Nullable
+  private final KeyTransform mKeyTransform;
+  private final PropertyShapes mPropertyShapes;
+  @Nullable
+  private final PayloadValidator mPayloadValidator;
+  private final AttributionParser mAttributionParser;
+  private final SessionCoordinator mSessionCoordinator;
+  @Nullable
+  private final AppboyContentRefresher mContentRefresher;
+  @Nullable
+  private final PushTokenRegistration mPushTokenRegistration;
+  /** The mapped id last passed to {@code changeUser}, or null until the user changes. */
+  @Nullable
+  private volatile String mBrazeUserId;
+  private final InAppMessageRegistrar mInAppMessageRegistrar;
 
   public AppboyIntegration(Context context,
       Appboy appboy,
@@ -107,12 +185,11 @@ public class AppboyIntegration extends Integration<Appboy> {
       boolean automaticInAppMessageRegistrationEnabled,
       boolean enableTraitDiffing,
       @Nullable UserIdMapper userIdMapper) {
-    mAppboy = appboy;
-    mToken = token;
-    mLogger = logger;
-    mAutomaticInAppMessageRegistrationEnabled = automaticInAppMessageRegistrationEnabled;
-    mUserIdMapper = userIdMapper != null ? userIdMapper : new DefaultUserIdMapper();
-    mTraitsCache = enableTraitDiffing ? new PreferencesTraitsCache(context) : null;
+    this(context, appboy, token, logger, automaticInAppMessageRegistrationEnabled,
+        AppboyIntegrationOptions.builder()
+            .enableTraitDiffing(enableTraitDiffing)
+            .userIdMapper(userIdMapper)
+            .build());
   }
 
   @RestrictTo(RestrictTo.Scope.TESTS)
@@ -123,12 +200,178 @@ public class AppboyIntegration extends Integration<Appboy> {
       boolean automaticInAppMessageRegistrationEnabled,
       boolean enableTraitDiffing,
       @Nullable UserIdMapper userIdMapper) {
+    this(context, appboy, token, logger, automaticInAppMessageRegistrationEnabled,
+        AppboyIntegrationOptions.builder()
+            .enableTraitDiffing(enableTraitDiffing)
+            .userIdMapper(userIdMapper)
+            .build());
+  }
+
+  AppboyIntegration(Context context,
+      IAppboy appboy,
+      String token,
+      Logger logger,
+      boolean automaticInAppMessageRegistrationEnabled,
+      AppboyIntegrationOptions options) {
+    this(context, appboy, token, logger, automaticInAppMessageRegistrationEnabled, options,
+        createTracer(options));
+  }
+
+  private AppboyIntegration(Context context,
+      IAppboy appboy,
+      String token,
+      Logger logger,
+      boolean automaticInAppMessageRegistrationEnabled,
+      AppboyIntegrationOptions options,
+      Tracer tracer) {
     mAppboy = appboy;
     mToken = token;
     mLogger = logger;
     mAutomaticInAppMessageRegistrationEnabled = automaticInAppMessageRegistrationEnabled;
+    UserIdMapper userIdMapper = options.getUserIdMapper();
     mUserIdMapper = userIdMapper != null ? userIdMapper : new DefaultUserIdMapper();
-    mTraitsCache = enableTraitDiffing ? new PreferencesTraitsCache(context) : null;
+    mCounterTraits = options.getCounterTraits();
+    mTracer = tracer;
+    mTraitsCache = createTraitsCache(context, options, mUserIdMapper, mTracer);
+    mScheduler = options.getScheduler() != null
+        ? options.getScheduler() : new HandlerTaskScheduler();
+    if (mTraitsCache != null && options.getTraitResyncTtlMillis() > 0) {
+      mTraitResync = new TraitResync(new PreferencesResyncStore(context),
+          options.getTraitResyncTtlMillis(), options.getTraitResyncBatchSize());
+    } else {
+      mTraitResync = null;
+    }
+    mTraitResyncIntervalMillis = options.getTraitResyncIntervalMillis();
+    long coalescingWindowMillis = options.getIdentifyCoalescingWindowMillis();
+    if (coalescingWindowMillis > 0) {
+      mIdentifyCoalescer = new IdentifyCoalescer(mScheduler, coalescingWindowMillis,
+          new IdentifyCoalescer.Target() {
+            @Override
+            public void changeUser(@Nullable String userId) {
+              mTracer.beginSection("Braze.changeUser");
+              try {
+                AppboyIntegration.this.changeUser(userId);
+              } finally {
+                mTracer.endSection();
+              }
+            }
+
+            @Override
+            public void updateUser(Traits traits) {
+              mTracer.beginSection("Braze.identify");
+              try {
+                AppboyIntegration.this.updateUser(traits);
+              } finally {
+                mTracer.endSection();
+              }
+            }
+          });
+    } else {
+      mIdentifyCoalescer = null;
+    }
+    mEventClassifier = new EventClassifier(options.getPurchaseEvents(),
+        options.getCountedEvents());
+    if (!options.getCountedEvents().isEmpty()) {
+      mEventCounter = new EventCounter(options.getCountedEvents(), mScheduler,
+          options.getEventCountFlushIntervalMillis(), new EventCounter.Sink() {
+            @Override
+            public void add(String event, long count) {
+              addEventCount(event, count);
+            }
+          });
+    } else {
+      mEventCounter = null;
+    }
+    AppboyIntegrationMetrics metrics = options.getMetrics() != null
+        ? options.getMetrics() : new AppboyIntegrationMetrics();
+    if (!options.getKeyRenames().isEmpty() || !options.getDroppedKeys().isEmpty()
+        || options.isSnakeCaseKeysEnabled()) {
+      mKeyTransform = new KeyTransform(options.getKeyRenames(), options.getDroppedKeys(),
+          options.isSnakeCaseKeysEnabled());
+    } else {
+      mKeyTransform = null;
+    }
+    mPropertyShapes = new PropertyShapes(mKeyTransform, metrics);
+    if (options.getBulkLaneCapacity() > 0) {
+      mBulkLane = new DispatchLane(mScheduler, options.getBulkLaneCapacity(),
+          options.getBulkLaneFlushIntervalMillis(), metrics.droppedBulkEvents);
+    } else {
+      mBulkLane = null;
+    }
+    if (options.getFlushBackoffBaseMillis() > 0) {
+      final FlushBackoff flushBackoff = new FlushBackoff(options.getFlushBackoffBaseMillis(),
+          options.getFlushBackoffMaxMillis(), new Random(), metrics);
+      appboy.subscribeToNetworkFailures(new IEventSubscriber<BrazeNetworkFailureEvent>() {
+        @Override
+        public void trigger(BrazeNetworkFailureEvent event) {
+          flushBackoff.onFailure(mScheduler.uptimeMillis());
+        }
+      });
+      mFlushBackoff = flushBackoff;
+    } else {
+      mFlushBackoff = null;
+    }
+    if (options.getValidationPolicy() != null) {
+      mPayloadValidator = new PayloadValidator(options.getValidationPolicy(),
+          options.getPayloadMaxLength(), options.getPayloadMaxPropertiesBytes(), mKeyTransform,
+          metrics);
+    } else {
+      mPayloadValidator = null;
+    }
+    final Cartographer cartographer = new Cartographer.Builder()
+        .lenient(true)
+        .prettyPrint(false)
+        .build();
+    mAttributionParser = new AttributionParser(new AttributionParser.JsonParser() {
+      @Override
+      public Map<String, Object> parse(String json) throws IOException {
+        return cartographer.fromJson(json);
+      }
+    });
+    mSessionCoordinator = new SessionCoordinator(appboy, mScheduler, mTracer,
+        options.getSessionCloseGracePeriodMillis());
+    mContentRefresher = options.getContentRefresher();
+    if (mContentRefresher != null) {
+      mContentRefresher.attach(appboy, mScheduler);
+    }
+    mPushTokenRegistration = options.isPushTokenForwardingEnabled()
+        ? new PushTokenRegistration(new PreferencesPushTokenStore(context)) : null;
+    mInAppMessageRegistrar = new InAppMessageRegistrar(InAppMessageRegistrar.APPBOY_MANAGER,
+        mScheduler, options.getInAppMessageActivities(),
+        options.getExcludedInAppMessageActivities(),
+        options.getInAppMessageUnregisterDelayMillis(), mTracer);
+  }
+
+  private static Tracer createTracer(AppboyIntegrationOptions options) {
+    Tracer tracer = options.getTracer() != null ? options.getTracer() : Tracer.NONE;
+    MainThreadBudgetListener listener = options.getMainThreadBudgetListener();
+    if (listener == null) {
+      return tracer;
+    }
+    return new MainThreadWatchdog(tracer, Looper.getMainLooper().getThread(),
+        TimeUnit.MILLISECONDS.toNanos(options.getMainThreadBudgetMillis()), listener,
+        MainThreadWatchdog.SYSTEM_CLOCK);
+  }
+
+  @Nullable
+  private static TraitsCache createTraitsCache(final Context context,
+      final AppboyIntegrationOptions options, final UserIdMapper userIdMapper, Tracer tracer) {
+    if (!options.isTraitDiffingEnabled()) {
+      return null;
+    }
+    return new PrefetchedTraitsCache(new Callable<TraitsCache>() {
+      @Override
+      public TraitsCache call() {
+        if (options.getTraitsCacheUserCapacity() > 0) {
+          return new PartitionedTraitsCache(context, userIdMapper,
+              options.getTraitsCacheUserCapacity(), options.getTraitsCacheByteBudget());
+        }
+        if (options.isMultiProcessTraitsCacheEnabled()) {
+          return new FileTraitsCache(context);
+        }
+        return new PreferencesTraitsCache(context);
+      }
+    }, tracer);
   }
 
   public String getToken() {
@@ -143,40 +386,87 @@ public class AppboyIntegration extends Integration<Appboy> {
   @Override
   public void identify(IdentifyPayload identify) {
     super.identify(identify);
+    if (mTraitResync != null) {
+      mLastCallUptimeMillis = mScheduler.uptimeMillis();
+    }
+
+    if (mIdentifyCoalescer != null) {
+      mLogger.verbose("Coalescing identify for user %s", identify.userId());
+      mIdentifyCoalescer.enqueue(identify.userId(), identify.traits());
+    } else {
+      applyIdentify(identify.userId(), identify.traits());
+    }
+    forwardPushToken(identify);
+  }
+
+  private void applyIdentify(@Nullable String userId, Traits originalTraits) {
+    mTracer.beginSection("Braze.identify");
+    try {
+      changeUser(userId);
+      updateUser(originalTraits);
+    } finally {
+      mTracer.endSection();
+    }
+  }
 
-    String userId = identify.userId();
+  private void changeUser(@Nullable String userId) {
     String cachedUserId = mTraitsCache != null ? mTraitsCache.load().userId() : null;
     if (!StringUtils.isNullOrBlank(userId) && !userId.equals(cachedUserId)) {
       mLogger.debug("User ID changed. Old=" + cachedUserId + " New=" + userId);
-      mAppboy.changeUser(mUserIdMapper.transformUserId(userId));
+      String mappedUserId = mUserIdMapper.transformUserId(userId);
+      flushBulkTraffic();
+      mAppboy.changeUser(mappedUserId);
+      mBrazeUserId = mappedUserId;
 
       if (mTraitsCache != null) {
-        mTraitsCache.clear();
+        mTraitsCache.switchUser(mappedUserId);
+      }
+      if (mTraitResync != null) {
+        mTraitResync.clear();
       }
     }
+  }
 
+  private void updateUser(Traits originalTraits) {
     AppboyUser currentUser = mAppboy.getCurrentUser();
     if (currentUser == null) {
       mLogger.info("Appboy.getCurrentUser() was null, aborting identify");
       return;
     }
 
-    Traits originalTraits = identify.traits();
-    Traits diffedTraits;
+    Traits lastEmittedTraits = mTraitsCache != null ? mTraitsCache.load() : null;
+    Traits diffedTraits = originalTraits;
+    if (lastEmittedTraits != null) {
+      mTracer.beginSection("Braze.diffTraits");
+      try {
+        diffedTraits = TraitDiffer.diff(originalTraits, lastEmittedTraits, new Traits());
+      } finally {
+        mTracer.endSection();
+      }
+    }
+
+    applyTraits(currentUser, diffedTraits, lastEmittedTraits);
+
+    if (mTraitResync != null) {
+      long now = System.currentTimeMillis();
+      mTraitResync.markSent(diffedTraits.keySet(), now);
+      mTraitResync.markKnown(originalTraits.keySet(), now);
+    }
     if (mTraitsCache != null) {
-      Traits lastEmittedTraits = mTraitsCache.load();
-      diffedTraits = diffTraits(originalTraits, lastEmittedTraits);
-    } else {
-      diffedTraits = originalTraits;
+      mTraitsCache.save(originalTraits);
     }
+  }
 
-    Date birthday = diffedTraits.birthday();
-    if (birthday != null) {
-      Calendar birthdayCal = Calendar.getInstance(Locale.US);
-      birthdayCal.setTime(birthday);
-      currentUser.setDateOfBirth(birthdayCal.get(Calendar.YEAR),
-          Month.values()[birthdayCal.get(Calendar.MONTH)],
-          birthdayCal.get(Calendar.DAY_OF_MONTH));
+  /**
+   * Sets {@code diffedTraits} on {@code currentUser}. Counter traits are sent as increments over
+   * their value in {@code lastEmittedTraits}, or absolutely without it.
+   */
+  private void applyTraits(AppboyUser currentUser, Traits diffedTraits,
+      @Nullable Traits lastEmittedTraits) {
+    int birthday = decodeBirthday(diffedTraits.get(BIRTHDAY_KEY));
+    if (birthday != StandardTraitDecoder.NO_DATE) {
+      currentUser.setDateOfBirth(StandardTraitDecoder.year(birthday),
+          MONTHS[StandardTraitDecoder.month(birthday) - 1], StandardTraitDecoder.day(birthday));
     }
 
     String email = diffedTraits.email();
@@ -194,13 +484,15 @@ public class AppboyIntegration extends Integration<Appboy> {
       currentUser.setLastName(lastName);
     }
 
-    String gender = diffedTraits.gender();
-    if (!StringUtils.isNullOrBlank(gender)) {
-      if (MALE_TOKENS.contains(gender.toUpperCase())) {
+    switch (StandardTraitDecoder.decodeGender(diffedTraits.gender())) {
+      case StandardTraitDecoder.GENDER_MALE:
         currentUser.setGender(Gender.MALE);
-      } else if (FEMALE_TOKENS.contains(gender.toUpperCase())) {
+        break;
+      case StandardTraitDecoder.GENDER_FEMALE:
         currentUser.setGender(Gender.FEMALE);
-      }
+        break;
+      default:
+        break;
     }
 
     String phone = diffedTraits.phone();
@@ -208,16 +500,15 @@ public class AppboyIntegration extends Integration<Appboy> {
       currentUser.setPhoneNumber(phone);
     }
 
-    Traits.Address address = diffedTraits.address();
-    if (address != null) {
-      String city = address.city();
-      if (!StringUtils.isNullOrBlank(city)) {
-        currentUser.setHomeCity(city);
-      }
-      String country = address.country();
-      if (!StringUtils.isNullOrBlank(country)) {
-        currentUser.setCountry(country);
-      }
+    Object address = diffedTraits.get(ADDRESS_KEY);
+    Object lastAddress = lastEmittedTraits != null ? lastEmittedTraits.get(ADDRESS_KEY) : null;
+    String city = StandardTraitDecoder.changedAddressField(address, lastAddress, CITY_KEY);
+    if (!StringUtils.isNullOrBlank(city)) {
+      currentUser.setHomeCity(city);
+    }
+    String country = StandardTraitDecoder.changedAddressField(address, lastAddress, COUNTRY_KEY);
+    if (!StringUtils.isNullOrBlank(country)) {
+      currentUser.setCountry(country);
     }
 
     String avatarUrl = diffedTraits.avatar();
@@ -225,72 +516,137 @@ public class AppboyIntegration extends Integration<Appboy> {
       currentUser.setAvatarImageUrl(avatarUrl);
     }
 
+    AppboyUserAttributes attributes = new AppboyUserAttributes(currentUser);
     for (String key : diffedTraits.keySet()) {
       if (RESERVED_KEYS.contains(key)) {
         mLogger.debug("Skipping reserved key %s", key);
         continue;
       }
       Object value = diffedTraits.get(key);
-      if (value instanceof Boolean) {
-        currentUser.setCustomUserAttribute(key, (Boolean) value);
-      } else if (value instanceof Integer) {
-        currentUser.setCustomUserAttribute(key, (Integer) value);
-      } else if (value instanceof Double) {
-        currentUser.setCustomUserAttribute(key, (Double) value);
-      } else if (value instanceof Float) {
-        currentUser.setCustomUserAttribute(key, (Float) value);
-      } else if (value instanceof Long) {
-        currentUser.setCustomUserAttribute(key, (Long) value);
-      } else if (value instanceof Date) {
-        long secondsFromEpoch = ((Date) value).getTime() / 1000L;
-        currentUser.setCustomUserAttributeToSecondsFromEpoch(key, secondsFromEpoch);
-      } else if (value instanceof String) {
-        currentUser.setCustomUserAttribute(key, (String) value);
-      } else {
-        mLogger.info("Appboy can't map segment value for custom Appboy user "
-            + "attribute with key %s and value %s", key, value);
+      String attributeKey = key;
+      if (mKeyTransform != null) {
+        attributeKey = mKeyTransform.apply(key);
+        if (attributeKey == null) {
+          continue;
+        }
+      }
+      if (mPayloadValidator != null) {
+        attributeKey = mPayloadValidator.attributeKey(attributeKey);
+        Object validValue = value != null ? mPayloadValidator.attributeValue(value) : null;
+        if (attributeKey == null || (value != null && validValue == null)) {
+          mLogger.debug("Skipping custom attribute %s, it exceeds Braze's limits", key);
+          continue;
+        }
+        value = validValue;
+      }
+      if (lastEmittedTraits != null && mCounterTraits.contains(key)
+          && CustomAttributes.increment(attributes, attributeKey, value,
+          lastEmittedTraits.get(key))) {
+        continue;
       }
+      setCustomUserAttribute(attributes, attributeKey, value);
     }
+  }
 
-    if (mTraitsCache != null) {
-      mTraitsCache.save(originalTraits);
+  private void scheduleTraitResync() {
+    if (!mTraitResyncScheduled) {
+      mTraitResyncScheduled = true;
+      mScheduler.schedule(mTraitResyncTask, mTraitResyncIntervalMillis);
     }
   }
 
-  private Traits diffTraits(Traits traits, Traits lastEmittedTraits) {
-    if (lastEmittedTraits == null) return traits;
-
-    Traits diffed = new Traits();
-
-    for (Map.Entry<String, Object> trait : traits.entrySet()) {
-      Object storedValue = lastEmittedTraits.get(trait.getKey());
-
-      if (storedValue != null) {
-        boolean areEqual = trait.getValue().equals(storedValue) || haveSameNumberValue(trait.getValue(), storedValue);
-        if (areEqual) {
-          continue;
-        }
+  /** Re-sends a batch of stale traits while the app is in the foreground and otherwise idle. */
+  private void resyncTraits() {
+    mTraitResyncScheduled = false;
+    if (!mSessionCoordinator.hasStartedActivities()) {
+      return;
+    }
+    if (mScheduler.uptimeMillis() - mLastCallUptimeMillis >= mTraitResyncIntervalMillis) {
+      mTracer.beginSection("Braze.resyncTraits");
+      try {
+        resendStaleTraits();
+      } finally {
+        mTracer.endSection();
       }
+    }
+    scheduleTraitResync();
+  }
 
-      diffed.put(trait.getKey(), trait.getValue());
+  private void resendStaleTraits() {
+    long now = System.currentTimeMillis();
+    List<String> keys = mTraitResync.staleKeys(now);
+    if (keys.isEmpty()) {
+      return;
+    }
+    AppboyUser currentUser = mAppboy.getCurrentUser();
+    if (currentUser == null) {
+      return;
+    }
+    Traits lastEmittedTraits = mTraitsCache.load();
+    Traits staleTraits = new Traits();
+    List<String> removedKeys = new ArrayList<>();
+    for (String key : keys) {
+      if (lastEmittedTraits.containsKey(key)) {
+        staleTraits.put(key, lastEmittedTraits.get(key));
+      } else {
+        removedKeys.add(key);
+      }
     }
+    mLogger.verbose("Re-sending %d traits last sent over the re-sync TTL ago", staleTraits.size());
+    applyTraits(currentUser, staleTraits, null);
+    mTraitResync.markSent(staleTraits.keySet(), now);
+    mTraitResync.forget(removedKeys);
+  }
 
-    return diffed;
+  private void setCustomUserAttribute(CustomAttributes.Sink attributes, String key,
+      Object value) {
+    if (!CustomAttributes.set(attributes, key, value)) {
+      mLogger.info("Appboy can't map segment value for custom Appboy user "
+          + "attribute with key %s and value %s", key, value);
+    }
   }
 
-  private boolean haveSameNumberValue(Object o1, Object o2) {
-    if (o1 instanceof Number && o2 instanceof Number) {
-      Number n1 = (Number) o1;
-      Number n2 = (Number) o2;
-      return n1.doubleValue() == n2.doubleValue();
-    } else {
-      return false;
+  /** Retries birthdays the fast decoder can't read with Segment's more lenient ISO parser. */
+  private static int decodeBirthday(Object value) {
+    int birthday = StandardTraitDecoder.decodeDate(value);
+    if (birthday == StandardTraitDecoder.NO_DATE && value instanceof String) {
+      try {
+        birthday = StandardTraitDecoder.decodeDate(Utils.toISO8601Date((String) value));
+      } catch (ParseException | RuntimeException ignored) {
+        // Not a date Segment can read either.
+      }
     }
+    return birthday;
   }
 
+
   @Override
   public void flush() {
     super.flush();
+    mTracer.beginSection("Braze.flush");
+    try {
+      if (mIdentifyCoalescer != null) {
+        mIdentifyCoalescer.flush();
+      }
+      flushBulkTraffic();
+      requestDataFlush();
+    } finally {
+      mTracer.endSection();
+    }
+  }
+
+  private void requestDataFlush() {
+    if (mFlushBackoff != null) {
+      long delayMillis = mFlushBackoff.tryFlush(mScheduler.uptimeMillis());
+      if (delayMillis > 0) {
+        mLogger.verbose("Holding back flush for %d ms after network failures.", delayMillis);
+        if (!mDeferredFlushScheduled) {
+          mDeferredFlushScheduled = true;
+          mScheduler.schedule(mDeferredFlushTask, delayMillis);
+        }
+        return;
+      }
+    }
     mLogger.verbose("Calling appboy.requestImmediateDataFlush().");
     mAppboy.requestImmediateDataFlush();
   }
@@ -301,69 +657,297 @@ public class AppboyIntegration extends Integration<Appboy> {
     if (track == null) {
       return;
     }
+    if (mTraitResync != null) {
+      mLastCallUptimeMillis = mScheduler.uptimeMillis();
+    }
+    mTracer.beginSection("Braze.track");
+    try {
+      logTrack(track);
+    } finally {
+      mTracer.endSection();
+    }
+    forwardPushToken(track);
+  }
+
+  /**
+   * Registers the payload's device push token, unless it was already registered for the current
+   * Braze user.
+   */
+  private void forwardPushToken(BasePayload payload) {
+    if (mPushTokenRegistration == null || payload.context() == null) {
+      return;
+    }
+    Object device = payload.context().get(DEVICE_KEY);
+    Object token = device instanceof Map ? ((Map<?, ?>) device).get(DEVICE_TOKEN_KEY) : null;
+    if (!(token instanceof String) || StringUtils.isNullOrBlank((String) token)) {
+      return;
+    }
+    String brazeUserId = mBrazeUserId;
+    if (brazeUserId == null) {
+      AppboyUser currentUser = mAppboy.getCurrentUser();
+      brazeUserId = currentUser != null ? currentUser.getUserId() : null;
+    }
+    if (mPushTokenRegistration.register(brazeUserId, (String) token)) {
+      mLogger.verbose("Calling appboy.registerAppboyPushMessages for user %s.", brazeUserId);
+      mAppboy.registerAppboyPushMessages((String) token);
+    }
+  }
+
+  private void logTrack(TrackPayload track) {
     String event = track.event();
     Properties properties = track.properties();
-    try {
-      if (event.equals("Install Attributed")) {
-        ValueMap campaignProps = (ValueMap) properties.get("campaign");
-        AppboyUser currentUser = mAppboy.getCurrentUser();
-        if (campaignProps != null && currentUser != null) {
-          currentUser.setAttributionData(new AttributionData(
-              campaignProps.getString("source"),
-              campaignProps.getString("name"),
-              campaignProps.getString("ad_group"),
-              campaignProps.getString("ad_creative")));
-        }
+    EventClassifier.Route route = mEventClassifier.classify(event);
+    if (route == EventClassifier.Route.INSTALL_ATTRIBUTION) {
+      logInstallAttribution(properties);
+      return;
+    }
+    double revenue = PurchaseFields.revenue(properties);
+    if (revenue != 0 || route == EventClassifier.Route.PURCHASE) {
+      if (mPayloadValidator != null) {
+        event = mPayloadValidator.purchaseName(event);
+      }
+      logPurchase(event, revenue, properties);
+      return;
+    }
+    if (route == EventClassifier.Route.COUNTED) {
+      mEventCounter.count(event);
+      return;
+    }
+    // Properties fixed by the validator, already under their Braze keys.
+    Properties brazeProperties = null;
+    if (mPayloadValidator != null) {
+      event = mPayloadValidator.eventName(event);
+      if (event == null) {
+        mLogger.verbose("Dropping event %s, its name exceeds Braze's limits.", track.event());
+        return;
+      }
+      int check = mPayloadValidator.checkProperties(properties);
+      if (check == PayloadValidator.DROP) {
+        mLogger.verbose("Dropping event %s, its properties exceed Braze's limits.", event);
         return;
       }
-    } catch (Exception exception) {
+      if (check == PayloadValidator.FIX) {
+        brazeProperties = new Properties();
+        mPayloadValidator.fixProperties(properties, brazeProperties);
+      }
+    }
+
+    if (brazeProperties != null ? brazeProperties.isEmpty() : properties.isEmpty()) {
+      logCustomEvent(event, null);
+    } else {
+      AppboyProperties appboyProperties;
+      mTracer.beginSection("Braze.toAppboyProperties");
+      try {
+        appboyProperties = brazeProperties != null
+            ? new AppboyProperties(brazeProperties.toJsonObject())
+            : toAppboyProperties(event, properties);
+      } finally {
+        mTracer.endSection();
+      }
+      logCustomEvent(event, appboyProperties);
+    }
+  }
+
+  /** Custom events go through the bulk lane, when there is one. */
+  private void logCustomEvent(final String event, @Nullable final AppboyProperties properties) {
+    if (mBulkLane == null) {
+      sendCustomEvent(event, properties);
+      return;
+    }
+    mBulkLane.submit(new Runnable() {
+      @Override
+      public void run() {
+        sendCustomEvent(event, properties);
+      }
+    });
+  }
+
+  private void sendCustomEvent(String event, @Nullable AppboyProperties properties) {
+    if (properties == null) {
+      mLogger.verbose("Calling appboy.logCustomEvent for event %s", event);
+      mAppboy.logCustomEvent(event);
+    } else {
+      mLogger.verbose("Calling appboy.logCustomEvent for event %s with properties %s.",
+          event, properties.forJsonPut());
+      mAppboy.logCustomEvent(event, properties);
+    }
+  }
+
+  /**
+   * Converts a purchase's properties for Braze, leaving out revenue and currency. The others,
+   * apart from products, are checked first and only copied if they need to be left out or
+   * truncated. Purchases are never dropped.
+   */
+  private JSONObject purchaseJson(Properties properties) {
+    if (mPayloadValidator == null
+        || mPayloadValidator.checkPurchaseProperties(properties) == PayloadValidator.VALID) {
+      JSONObject json = properties.toJsonObject();
+      json.remove(PurchaseFields.REVENUE_KEY);
+      json.remove(PurchaseFields.CURRENCY_KEY);
+      return transformKeys(json);
+    }
+    // Fixed properties are already under their Braze keys.
+    Properties fixed = new Properties();
+    mPayloadValidator.fixPurchaseProperties(properties, fixed);
+    Object products = properties.get(PurchaseFields.PRODUCTS_KEY);
+    String productsKey = mKeyTransform != null
+        ? mKeyTransform.apply(PurchaseFields.PRODUCTS_KEY) : PurchaseFields.PRODUCTS_KEY;
+    if (products != null && productsKey != null) {
+      fixed.put(productsKey, products);
+    }
+    return fixed.toJsonObject();
+  }
+
+  private AppboyProperties toAppboyProperties(String event, Properties properties) {
+    AppboyEventProperties shaped = new AppboyEventProperties();
+    if (mPropertyShapes.write(event, properties, shaped)) {
+      return shaped.get();
+    }
+    return new AppboyProperties(transformKeys(properties.toJsonObject()));
+  }
+
+  /**
+   * Returns {@code json} with the key transform applied to its top-level keys. Keys are renamed
+   * into a new object, so chained renames never move an already renamed value, and of two keys
+   * renamed to the same Braze key the later one wins, like on the shaped path.
+   */
+  private JSONObject transformKeys(JSONObject json) {
+    if (mKeyTransform == null) {
+      return json;
+    }
+    JSONObject transformed = new JSONObject();
+    Iterator<String> keys = json.keys();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      String brazeKey = mKeyTransform.apply(key);
+      if (brazeKey != null) {
+        try {
+          transformed.put(brazeKey, json.opt(key));
+        } catch (JSONException e) {
+          mLogger.error(e, "Could not rename property %s to %s", key, brazeKey);
+        }
+      }
+    }
+    return transformed;
+  }
+
+  /** Sends everything waiting in the bulk lane and the event counts. */
+  private void flushBulkTraffic() {
+    if (mBulkLane != null) {
+      mBulkLane.flush();
+    }
+    if (mEventCounter != null) {
+      mEventCounter.flush();
+    }
+  }
+
+  private void addEventCount(String event, long count) {
+    AppboyUser currentUser = mAppboy.getCurrentUser();
+    if (currentUser == null) {
+      mLogger.info("Appboy.getCurrentUser() was null, dropping %d %s events", count, event);
+      return;
+    }
+    mLogger.verbose("Calling appboyUser.incrementCustomUserAttribute for %s by %d", event, count);
+    while (count > 0) {
+      int increment = (int) Math.min(count, Integer.MAX_VALUE);
+      currentUser.incrementCustomUserAttribute(event, increment);
+      count -= increment;
+    }
+  }
+
+  private void logInstallAttribution(Properties properties) {
+    AttributionParser.Attribution attribution =
+        mAttributionParser.parse(properties.get(AttributionParser.CAMPAIGN_KEY));
+    if (attribution == null) {
       mLogger.verbose("This Install Attributed event is not in the proper format and cannot be"
-          + " logged. The exception is %s.", exception);
-    }
-    JSONObject propertiesJson = properties.toJsonObject();
-    double revenue = properties.revenue();
-    if (revenue != 0 || event.equals("Order Completed")) {
-      String currencyCode = StringUtils.isNullOrBlank(properties.currency()) ? DEFAULT_CURRENCY_CODE
-          : properties.currency();
-      propertiesJson.remove(REVENUE_KEY);
-      propertiesJson.remove(CURRENCY_KEY);
-
-      if (properties.products() != null) {
-        for (Properties.Product product : properties.products()) {
-          logPurchaseForSingleItem(product.id(), currencyCode, BigDecimal.valueOf(product.price()), propertiesJson);
+          + " logged.");
+      return;
+    }
+    AppboyUser currentUser = mAppboy.getCurrentUser();
+    if (currentUser == null) {
+      mLogger.info("Appboy.getCurrentUser() was null, aborting Install Attributed");
+      return;
+    }
+    currentUser.setAttributionData(new AttributionData(attribution.source, attribution.name,
+        attribution.adGroup, attribution.adCreative));
+    AppboyUserAttributes attributes = new AppboyUserAttributes(currentUser);
+    for (Map.Entry<String, Object> extra : attribution.extras.entrySet()) {
+      setCustomUserAttribute(attributes, CAMPAIGN_ATTRIBUTE_PREFIX + extra.getKey(),
+          extra.getValue());
+    }
+  }
+
+  private void logPurchase(String event, double revenue, Properties properties) {
+    mTracer.beginSection("Braze.logPurchase");
+    try {
+      logPurchaseItems(event, revenue, properties);
+    } finally {
+      mTracer.endSection();
+    }
+  }
+
+  private void logPurchaseItems(String event, double revenue, Properties properties) {
+    String currency = PurchaseFields.currency(properties);
+    String currencyCode = StringUtils.isNullOrBlank(currency) ? DEFAULT_CURRENCY_CODE : currency;
+    JSONObject propertiesJson = purchaseJson(properties);
+
+    List<?> products = PurchaseFields.products(properties);
+    if (products != null) {
+      for (Object product : products) {
+        if (PurchaseFields.isProduct(product)) {
+          logPurchaseForSingleItem(PurchaseFields.productId(product), currencyCode,
+              BigDecimal.valueOf(PurchaseFields.price(product)), propertiesJson);
         }
-      } else {
-        logPurchaseForSingleItem(event, currencyCode, BigDecimal.valueOf(revenue), propertiesJson);
       }
     } else {
-      if (propertiesJson == null || propertiesJson.length() == 0) {
-        mLogger.verbose("Calling appboy.logCustomEvent for event %s", event);
-        mAppboy.logCustomEvent(event);
-      } else {
-        mLogger.verbose("Calling appboy.logCustomEvent for event %s with properties %s.",
-            event, propertiesJson.toString());
-        mAppboy.logCustomEvent(event, new AppboyProperties(propertiesJson));
-      }
+      logPurchaseForSingleItem(event, currencyCode, BigDecimal.valueOf(revenue), propertiesJson);
     }
   }
 
   @Override
   public void onActivityStarted(Activity activity) {
     super.onActivityStarted(activity);
-    mAppboy.openSession(activity);
+    mTracer.beginSection("Braze.onActivityStarted");
+    try {
+      if (mSessionCoordinator.onActivityStarted(activity) && mContentRefresher != null) {
+        mContentRefresher.onSessionOpened();
+      }
+      if (mTraitResync != null) {
+        scheduleTraitResync();
+      }
+    } finally {
+      mTracer.endSection();
+    }
   }
 
   @Override
   public void onActivityStopped(Activity activity) {
     super.onActivityStopped(activity);
-    mAppboy.closeSession(activity);
+    mTracer.beginSection("Braze.onActivityStopped");
+    try {
+      mSessionCoordinator.onActivityStopped(activity);
+      if (!mSessionCoordinator.hasStartedActivities()) {
+        flushBulkTraffic();
+        if (mTraitResyncScheduled) {
+          mTraitResyncScheduled = false;
+          mScheduler.cancel(mTraitResyncTask);
+        }
+      }
+    } finally {
+      mTracer.endSection();
+    }
   }
 
   @Override
   public void onActivityResumed(Activity activity) {
     super.onActivityResumed(activity);
     if (mAutomaticInAppMessageRegistrationEnabled) {
-      AppboyInAppMessageManager.getInstance().registerInAppMessageManager(activity);
+      mTracer.beginSection("Braze.onActivityResumed");
+      try {
+        mInAppMessageRegistrar.onActivityResumed(activity);
+      } finally {
+        mTracer.endSection();
+      }
     }
   }
 
@@ -371,7 +955,12 @@ public class AppboyIntegration extends Integration<Appboy> {
   public void onActivityPaused(Activity activity) {
     super.onActivityPaused(activity);
     if (mAutomaticInAppMessageRegistrationEnabled) {
-      AppboyInAppMessageManager.getInstance().unregisterInAppMessageManager(activity);
+      mTracer.beginSection("Braze.onActivityPaused");
+      try {
+        mInAppMessageRegistrar.onActivityPaused(activity);
+      } finally {
+        mTracer.endSection();
+      }
     }
   }
 
@@ -394,8 +983,20 @@ public class AppboyIntegration extends Integration<Appboy> {
   @Override
   public void reset() {
     super.reset();
-    if (mTraitsCache != null) {
-      mTraitsCache.clear();
+    mTracer.beginSection("Braze.reset");
+    try {
+      if (mIdentifyCoalescer != null) {
+        mIdentifyCoalescer.flush();
+      }
+      flushBulkTraffic();
+      if (mTraitsCache != null) {
+        mTraitsCache.switchUser(null);
+      }
+      if (mTraitResync != null) {
+        mTraitResync.clear();
+      }
+    } finally {
+      mTracer.endSection();
     }
   }
 }
@@ -1,9 +1,49 @@
 package com.segment.analytics.android.integrations.appboy;
 
+import android.app.Activity;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
 public class AppboyIntegrationOptions {
 
   private UserIdMapper userIdMapper;
   private boolean enableTraitDiffing;
+  private Set<String> counterTraits;
+  private Map<String, String> keyRenames;
+  private Set<String> droppedKeys;
+  private boolean snakeCaseKeys;
+  private long identifyCoalescingWindowMillis;
+  private Set<String> purchaseEvents;
+  private Set<String> countedEvents;
+  private long eventCountFlushIntervalMillis;
+  private int bulkLaneCapacity;
+  private long bulkLaneFlushIntervalMillis;
+  private long flushBackoffBaseMillis;
+  private long flushBackoffMaxMillis;
+  private int traitsCacheUserCapacity;
+  private long traitsCacheByteBudget;
+  private boolean multiProcessTraitsCache;
+  private long traitResyncTtlMillis;
+  private int traitResyncBatchSize;
+  private long traitResyncIntervalMillis;
+  private long sessionCloseGracePeriodMillis;
+  private AppboyContentRefresher contentRefresher;
+  private boolean forwardPushTokens;
+  private Set<Class<? extends Activity>> inAppMessageActivities;
+  private Set<Class<? extends Activity>> excludedInAppMessageActivities;
+  private long inAppMessageUnregisterDelayMillis;
+  private long mainThreadBudgetMillis;
+  private MainThreadBudgetListener mainThreadBudgetListener;
+  private ValidationPolicy validationPolicy;
+  private int payloadMaxLength;
+  private int payloadMaxPropertiesBytes;
+  private AppboyIntegrationMetrics metrics;
+  private Tracer tracer;
+  private TaskScheduler scheduler;
 
   public static Builder builder() {
     return new Builder();
@@ -17,15 +57,223 @@ public class AppboyIntegrationOptions {
     return enableTraitDiffing;
   }
 
-  private AppboyIntegrationOptions(UserIdMapper userIdMapper, boolean enableTraitDiffing) {
+  Set<String> getCounterTraits() {
+    return counterTraits;
+  }
+
+  Map<String, String> getKeyRenames() {
+    return keyRenames;
+  }
+
+  Set<String> getDroppedKeys() {
+    return droppedKeys;
+  }
+
+  public boolean isSnakeCaseKeysEnabled() {
+    return snakeCaseKeys;
+  }
+
+  public long getIdentifyCoalescingWindowMillis() {
+    return identifyCoalescingWindowMillis;
+  }
+
+  Set<String> getPurchaseEvents() {
+    return purchaseEvents;
+  }
+
+  Set<String> getCountedEvents() {
+    return countedEvents;
+  }
+
+  public long getEventCountFlushIntervalMillis() {
+    return eventCountFlushIntervalMillis;
+  }
+
+  public int getBulkLaneCapacity() {
+    return bulkLaneCapacity;
+  }
+
+  public long getBulkLaneFlushIntervalMillis() {
+    return bulkLaneFlushIntervalMillis;
+  }
+
+  long getFlushBackoffBaseMillis() {
+    return flushBackoffBaseMillis;
+  }
+
+  long getFlushBackoffMaxMillis() {
+    return flushBackoffMaxMillis;
+  }
+
+  public int getTraitsCacheUserCapacity() {
+    return traitsCacheUserCapacity;
+  }
+
+  public long getTraitsCacheByteBudget() {
+    return traitsCacheByteBudget;
+  }
+
+  public boolean isMultiProcessTraitsCacheEnabled() {
+    return multiProcessTraitsCache;
+  }
+
+  long getTraitResyncTtlMillis() {
+    return traitResyncTtlMillis;
+  }
+
+  int getTraitResyncBatchSize() {
+    return traitResyncBatchSize;
+  }
+
+  long getTraitResyncIntervalMillis() {
+    return traitResyncIntervalMillis;
+  }
+
+  public long getSessionCloseGracePeriodMillis() {
+    return sessionCloseGracePeriodMillis;
+  }
+
+  AppboyContentRefresher getContentRefresher() {
+    return contentRefresher;
+  }
+
+  public boolean isPushTokenForwardingEnabled() {
+    return forwardPushTokens;
+  }
+
+  Set<Class<? extends Activity>> getInAppMessageActivities() {
+    return inAppMessageActivities;
+  }
+
+  Set<Class<? extends Activity>> getExcludedInAppMessageActivities() {
+    return excludedInAppMessageActivities;
+  }
+
+  public long getInAppMessageUnregisterDelayMillis() {
+    return inAppMessageUnregisterDelayMillis;
+  }
+
+  public long getMainThreadBudgetMillis() {
+    return mainThreadBudgetMillis;
+  }
+
+  MainThreadBudgetListener getMainThreadBudgetListener() {
+    return mainThreadBudgetListener;
+  }
+
+  public ValidationPolicy getValidationPolicy() {
+    return validationPolicy;
+  }
+
+  public int getPayloadMaxLength() {
+    return payloadMaxLength;
+  }
+
+  public int getPayloadMaxPropertiesBytes() {
+    return payloadMaxPropertiesBytes;
+  }
+
+  AppboyIntegrationMetrics getMetrics() {
+    return metrics;
+  }
+
+  public Tracer getTracer() {
+    return tracer;
+  }
+
+  TaskScheduler getScheduler() {
+    return scheduler;
+  }
+
+  private AppboyIntegrationOptions(UserIdMapper userIdMapper, boolean enableTraitDiffing,
+      Set<String> counterTraits, Map<String, String> keyRenames, Set<String> droppedKeys,
+      boolean snakeCaseKeys, long identifyCoalescingWindowMillis, Set<String> purchaseEvents,
+      Set<String> countedEvents,
+      long eventCountFlushIntervalMillis, int bulkLaneCapacity, long bulkLaneFlushIntervalMillis,
+      long flushBackoffBaseMillis, long flushBackoffMaxMillis, int traitsCacheUserCapacity,
+      long traitsCacheByteBudget, boolean multiProcessTraitsCache, long traitResyncTtlMillis,
+      int traitResyncBatchSize, long traitResyncIntervalMillis,
+      long sessionCloseGracePeriodMillis, AppboyContentRefresher contentRefresher,
+      boolean forwardPushTokens,
+      Set<Class<? extends Activity>> inAppMessageActivities,
+      Set<Class<? extends Activity>> excludedInAppMessageActivities,
+      long inAppMessageUnregisterDelayMillis, long mainThreadBudgetMillis,
+      MainThreadBudgetListener mainThreadBudgetListener, ValidationPolicy validationPolicy,
+      int payloadMaxLength, int payloadMaxPropertiesBytes, AppboyIntegrationMetrics metrics,
+      Tracer tracer, TaskScheduler scheduler) {
     this.userIdMapper = userIdMapper;
 
     this.enableTraitDiffing = enableTraitDiffing;
+    this.counterTraits = counterTraits;
+    this.keyRenames = keyRenames;
+    this.droppedKeys = droppedKeys;
+    this.snakeCaseKeys = snakeCaseKeys;
+    this.identifyCoalescingWindowMillis = identifyCoalescingWindowMillis;
+    this.purchaseEvents = purchaseEvents;
+    this.countedEvents = countedEvents;
+    this.eventCountFlushIntervalMillis = eventCountFlushIntervalMillis;
+    this.bulkLaneCapacity = bulkLaneCapacity;
+    this.bulkLaneFlushIntervalMillis = bulkLaneFlushIntervalMillis;
+    this.flushBackoffBaseMillis = flushBackoffBaseMillis;
+    this.flushBackoffMaxMillis = flushBackoffMaxMillis;
+    this.traitsCacheUserCapacity = traitsCacheUserCapacity;
+    this.traitsCacheByteBudget = traitsCacheByteBudget;
+    this.multiProcessTraitsCache = multiProcessTraitsCache;
+    this.traitResyncTtlMillis = traitResyncTtlMillis;
+    this.traitResyncBatchSize = traitResyncBatchSize;
+    this.traitResyncIntervalMillis = traitResyncIntervalMillis;
+    this.sessionCloseGracePeriodMillis = sessionCloseGracePeriodMillis;
+    this.contentRefresher = contentRefresher;
+    this.forwardPushTokens = forwardPushTokens;
+    this.inAppMessageActivities = inAppMessageActivities;
+    this.excludedInAppMessageActivities = excludedInAppMessageActivities;
+    this.inAppMessageUnregisterDelayMillis = inAppMessageUnregisterDelayMillis;
+    this.mainThreadBudgetMillis = mainThreadBudgetMillis;
+    this.mainThreadBudgetListener = mainThreadBudgetListener;
+    this.validationPolicy = validationPolicy;
+    this.payloadMaxLength = payloadMaxLength;
+    this.payloadMaxPropertiesBytes = payloadMaxPropertiesBytes;
+    this.metrics = metrics;
+    this.tracer = tracer;
+    this.scheduler = scheduler;
   }
 
   public static class Builder {
     private UserIdMapper userIdMapper;
     private boolean traitDiffingEnabled;
+    private final Set<String> counterTraits = new LinkedHashSet<>();
+    private final Map<String, String> keyRenames = new LinkedHashMap<>();
+    private final Set<String> droppedKeys = new LinkedHashSet<>();
+    private boolean snakeCaseKeys;
+    private long identifyCoalescingWindowMillis;
+    private final Set<String> purchaseEvents = new LinkedHashSet<>();
+    private final Set<String> countedEvents = new LinkedHashSet<>();
+    private long eventCountFlushIntervalMillis;
+    private int bulkLaneCapacity;
+    private long bulkLaneFlushIntervalMillis;
+    private long flushBackoffBaseMillis;
+    private long flushBackoffMaxMillis;
+    private int traitsCacheUserCapacity;
+    private long traitsCacheByteBudget;
+    private boolean multiProcessTraitsCache;
+    private long traitResyncTtlMillis;
+    private int traitResyncBatchSize;
+    private long traitResyncIntervalMillis;
+    private long sessionCloseGracePeriodMillis;
+    private AppboyContentRefresher contentRefresher;
+    private boolean forwardPushTokens;
+    private final Set<Class<? extends Activity>> inAppMessageActivities = new LinkedHashSet<>();
+    private final Set<Class<? extends Activity>> excludedInAppMessageActivities =
+        new LinkedHashSet<>();
+    private long inAppMessageUnregisterDelayMillis;
+    private long mainThreadBudgetMillis;
+    private MainThreadBudgetListener mainThreadBudgetListener;
+    private ValidationPolicy validationPolicy;
+    private int payloadMaxLength = PayloadValidator.BRAZE_MAX_LENGTH;
+    private int payloadMaxPropertiesBytes = PayloadValidator.BRAZE_MAX_PROPERTIES_BYTES;
+    private AppboyIntegrationMetrics metrics;
+    private Tracer tracer;
+    private TaskScheduler scheduler;
 
     public Builder userIdMapper(UserIdMapper userIdMapper) {
       this.userIdMapper = userIdMapper;
@@ -37,8 +285,330 @@ public class AppboyIntegrationOptions {
       return this;
     }
 
+    /**
+     * Treats these numeric traits as counters that only go up, e.g. {@code orders_count}. When one
+     * grows, the difference to the previously sent value is added with
+     * {@code incrementCustomUserAttribute} instead of setting the new total, which stays correct
+     * when several devices report the same user. The previous value comes from the diffing cache,
+     * so this only takes effect together with {@link #enableTraitDiffing(boolean)}. The total is
+     * set as usual the first time and whenever the counter goes down.
+     */
+    public Builder counterTraits(String... keys) {
+      counterTraits.addAll(Arrays.asList(keys));
+      return this;
+    }
+
+    /** Sends the Segment trait or event property {@code key} to Braze as {@code brazeKey}. */
+    public Builder renameKey(String key, String brazeKey) {
+      droppedKeys.remove(key);
+      keyRenames.put(key, brazeKey);
+      return this;
+    }
+
+    /** Never sends the Segment trait or event property {@code key} to Braze. */
+    public Builder dropKey(String key) {
+      keyRenames.remove(key);
+      droppedKeys.add(key);
+      return this;
+    }
+
+    /**
+     * Converts camelCase trait and event property keys to snake_case for Braze, e.g.
+     * {@code ordersCount} to {@code orders_count}. Keys passed to {@link #renameKey} or
+     * {@link #dropKey} are left to those. Options that name keys, such as
+     * {@link #counterTraits}, keep using the Segment names.
+     */
+    public Builder snakeCaseKeys(boolean enable) {
+      this.snakeCaseKeys = enable;
+      return this;
+    }
+
+    /**
+     * Merges identify calls for the same user received within {@code windowMillis} of the first
+     * one into a single Braze update. The pending update is also applied when the user changes and
+     * on {@code flush()}. The Braze user itself is changed right away, so only trait writes wait.
+     * A window of 0 (the default) applies every identify immediately.
+     */
+    public Builder enableIdentifyCoalescing(long windowMillis) {
+      if (windowMillis < 0) {
+        throw new IllegalArgumentException("windowMillis must be >= 0");
+      }
+      this.identifyCoalescingWindowMillis = windowMillis;
+      return this;
+    }
+
+    /**
+     * Logs the given events as purchases, in addition to "Order Completed" and any event carrying
+     * revenue. Useful for other e-commerce spec events such as "Product Purchased".
+     */
+    public Builder purchaseEvents(String... eventNames) {
+      purchaseEvents.addAll(Arrays.asList(eventNames));
+      return this;
+    }
+
+    /**
+     * Counts the given events locally instead of logging each one as a custom event. Every
+     * {@code flushIntervalMillis}, on {@code flush()}, on {@code reset()}, before the user changes
+     * and when the app goes to the background, the counts are added to the custom attributes of
+     * the same name with {@code incrementCustomUserAttribute}. Events carrying revenue are still
+     * logged as purchases.
+     */
+    public Builder countEvents(long flushIntervalMillis, String... eventNames) {
+      if (flushIntervalMillis <= 0) {
+        throw new IllegalArgumentException("flushIntervalMillis must be > 0");
+      }
+      countedEvents.addAll(Arrays.asList(eventNames));
+      this.eventCountFlushIntervalMillis = flushIntervalMillis;
+      return this;
+    }
+
+    /**
+     * Sends custom events through a bulk lane that holds up to {@code capacity} of them for up to
+     * {@code flushIntervalMillis}, dropping the oldest while it is full. Purchases, install
+     * attribution and user changes are never queued behind it. The lane is also flushed on
+     * {@code flush()}, on {@code reset()}, before the user changes and when the app goes to the
+     * background. By default custom events are sent right away.
+     */
+    public Builder bulkEventLane(int capacity, long flushIntervalMillis) {
+      if (capacity < 1) {
+        throw new IllegalArgumentException("capacity must be >= 1");
+      }
+      if (flushIntervalMillis <= 0) {
+        throw new IllegalArgumentException("flushIntervalMillis must be > 0");
+      }
+      this.bulkLaneCapacity = capacity;
+      this.bulkLaneFlushIntervalMillis = flushIntervalMillis;
+      return this;
+    }
+
+    /**
+     * Holds back {@code flush()} while Braze reports network failures instead of requesting an
+     * immediate data flush that is likely to fail too. After a failure flushes wait between half
+     * and all of {@code baseMillis}, doubling with every further failure up to {@code maxMillis};
+     * flushes requested meanwhile are merged into one sent when the wait is over. The backoff
+     * resets once flushes go through without a failure. The state is visible through
+     * {@link #metrics(AppboyIntegrationMetrics)}. Off by default.
+     */
+    public Builder backOffFlushesOnNetworkFailure(long baseMillis, long maxMillis) {
+      if (baseMillis <= 0) {
+        throw new IllegalArgumentException("baseMillis must be > 0");
+      }
+      if (maxMillis < baseMillis) {
+        throw new IllegalArgumentException("maxMillis must be >= baseMillis");
+      }
+      this.flushBackoffBaseMillis = baseMillis;
+      this.flushBackoffMaxMillis = maxMillis;
+      return this;
+    }
+
+    /**
+     * Keeps the diffing cache of the last {@code userCapacity} users instead of only the current
+     * one, so switching between accounts on a shared device doesn't resend every trait. Users are
+     * evicted least recently used first, also once their cached traits take more than
+     * {@code byteBudget} bytes. Only used together with {@link #enableTraitDiffing(boolean)}.
+     */
+    public Builder enableTraitsCachePartitioning(int userCapacity, long byteBudget) {
+      if (userCapacity < 1) {
+        throw new IllegalArgumentException("userCapacity must be >= 1");
+      }
+      if (byteBudget < 0) {
+        throw new IllegalArgumentException("byteBudget must be >= 0");
+      }
+      this.traitsCacheUserCapacity = userCapacity;
+      this.traitsCacheByteBudget = byteBudget;
+      return this;
+    }
+
+    /**
+     * Keeps the diffing cache in a file shared by all of the app's processes instead of in
+     * SharedPreferences, for apps that run Segment in more than one process. Each process only
+     * reads the file again after another one changed it. Cannot be combined with
+     * {@link #enableTraitsCachePartitioning(int, long)}.
+     */
+    public Builder enableMultiProcessTraitsCache(boolean enable) {
+      this.multiProcessTraitsCache = enable;
+      return this;
+    }
+
+    /**
+     * Sends traits again once {@code ttlMillis} have passed since they were last sent, so values
+     * the diffing cache keeps back can't stay out of sync with Braze indefinitely, e.g. after they
+     * were edited on the dashboard. Every {@code intervalMillis} while an activity is started and
+     * no identify or track came in for that long, up to {@code batchSize} of the traits sent
+     * longest ago are re-sent. Only used together with {@link #enableTraitDiffing(boolean)}.
+     */
+    public Builder enableTraitResync(long ttlMillis, int batchSize, long intervalMillis) {
+      if (ttlMillis <= 0) {
+        throw new IllegalArgumentException("ttlMillis must be > 0");
+      }
+      if (batchSize < 1) {
+        throw new IllegalArgumentException("batchSize must be >= 1");
+      }
+      if (intervalMillis <= 0) {
+        throw new IllegalArgumentException("intervalMillis must be > 0");
+      }
+      this.traitResyncTtlMillis = ttlMillis;
+      this.traitResyncBatchSize = batchSize;
+      this.traitResyncIntervalMillis = intervalMillis;
+      return this;
+    }
+
+    /**
+     * Delays closing the Braze session by {@code millis} after the last activity stops, and keeps
+     * the session open if another activity starts in the meantime, e.g. after a rotation. With the
+     * default of 0 the session closes as soon as no activity is started.
+     */
+    public Builder sessionCloseGracePeriod(long millis) {
+      if (millis < 0) {
+        throw new IllegalArgumentException("millis must be >= 0");
+      }
+      this.sessionCloseGracePeriodMillis = millis;
+      return this;
+    }
+
+    /**
+     * Lets {@code refresher} refresh content cards and the news feed, and prefetch them whenever
+     * the integration opens a new Braze session.
+     */
+    public Builder contentRefresher(AppboyContentRefresher refresher) {
+      this.contentRefresher = refresher;
+      return this;
+    }
+
+    /**
+     * Registers the push token Segment carries in the device context of identify and track calls
+     * (set it with {@code AnalyticsContext.Device#putDeviceToken}) with Braze. A token is only
+     * registered again when it or the user changed, also across app launches. Off by default.
+     */
+    public Builder forwardPushTokens(boolean enable) {
+      this.forwardPushTokens = enable;
+      return this;
+    }
+
+    /**
+     * Only registers the in-app message manager for these activities and their subclasses. By
+     * default every activity not excluded or annotated with
+     * {@link SkipInAppMessageRegistration} is registered.
+     */
+    @SafeVarargs
+    public final Builder inAppMessageActivities(Class<? extends Activity>... activities) {
+      inAppMessageActivities.addAll(Arrays.asList(activities));
+      return this;
+    }
+
+    /** Never registers the in-app message manager for these activities and their subclasses. */
+    @SafeVarargs
+    public final Builder excludeInAppMessageActivities(Class<? extends Activity>... activities) {
+      excludedInAppMessageActivities.addAll(Arrays.asList(activities));
+      return this;
+    }
+
+    /**
+     * Delays unregistering the in-app message manager by {@code millis} after an activity pauses,
+     * so an activity that resumes again within that time (after a dialog or a permission prompt)
+     * stays registered. With the default of 0 it is unregistered on every pause.
+     */
+    public Builder inAppMessageUnregisterDelay(long millis) {
+      if (millis < 0) {
+        throw new IllegalArgumentException("millis must be >= 0");
+      }
+      this.inAppMessageUnregisterDelayMillis = millis;
+      return this;
+    }
+
+    /**
+     * Times the integration's callbacks that run on the main thread (activity lifecycle, the
+     * factory's {@code create}, and identify, track, flush and reset when delivered there) and
+     * tells {@code listener} about every one that takes longer than {@code millis}, along with its
+     * slowest phase, e.g. a Braze SDK call or traits cache access. Off by default.
+     */
+    public Builder mainThreadBudget(long millis, MainThreadBudgetListener listener) {
+      if (millis < 0) {
+        throw new IllegalArgumentException("millis must be >= 0");
+      }
+      if (listener == null) {
+        throw new IllegalArgumentException("listener == null");
+      }
+      this.mainThreadBudgetMillis = millis;
+      this.mainThreadBudgetListener = listener;
+      return this;
+    }
+
+    /**
+     * Checks event names, event property and custom attribute keys, string values and the size of
+     * event properties against Braze's limits before converting them, and applies {@code policy}
+     * to anything over a limit instead of leaving it to the SDK. Violations are counted in
+     * {@link #metrics(AppboyIntegrationMetrics)}. Off by default.
+     */
+    public Builder validatePayloads(ValidationPolicy policy) {
+      if (policy == null) {
+        throw new IllegalArgumentException("policy == null");
+      }
+      this.validationPolicy = policy;
+      return this;
+    }
+
+    /**
+     * Overrides the limits used by {@link #validatePayloads(ValidationPolicy)}: the maximum
+     * length of names, keys and string values in chars (255 by default), and the maximum size of
+     * an event's properties in bytes (50 KB by default).
+     */
+    public Builder payloadLimits(int maxLength, int maxPropertiesBytes) {
+      if (maxLength < 1) {
+        throw new IllegalArgumentException("maxLength must be >= 1");
+      }
+      if (maxPropertiesBytes < 2) {
+        throw new IllegalArgumentException("maxPropertiesBytes must be >= 2");
+      }
+      this.payloadMaxLength = maxLength;
+      this.payloadMaxPropertiesBytes = maxPropertiesBytes;
+      return this;
+    }
+
+    /** Counts into {@code metrics} how events were handled, e.g. property conversion hit rates. */
+    public Builder metrics(AppboyIntegrationMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
+    /**
+     * Wraps identify, trait diffing and cache access, track conversion, purchases, sessions and
+     * in-app message registration in trace sections named {@code Braze.*}. Pass
+     * {@link AndroidTracer#INSTANCE} to see them in system traces. The default records nothing.
+     */
+    public Builder tracer(Tracer tracer) {
+      this.tracer = tracer;
+      return this;
+    }
+
+    /** Replaces the main-looper scheduler, e.g. with a virtual clock when replaying traffic. */
+    Builder scheduler(TaskScheduler scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
     public AppboyIntegrationOptions build() {
-      return new AppboyIntegrationOptions(userIdMapper, traitDiffingEnabled);
+      if (multiProcessTraitsCache && traitsCacheUserCapacity > 0) {
+        throw new IllegalStateException(
+            "The multi-process traits cache cannot be combined with partitioning");
+      }
+      return new AppboyIntegrationOptions(userIdMapper, traitDiffingEnabled,
+          Collections.unmodifiableSet(new LinkedHashSet<>(counterTraits)),
+          Collections.unmodifiableMap(new LinkedHashMap<>(keyRenames)),
+          Collections.unmodifiableSet(new LinkedHashSet<>(droppedKeys)), snakeCaseKeys,
+          identifyCoalescingWindowMillis,
+          Collections.unmodifiableSet(new LinkedHashSet<>(purchaseEvents)),
+          Collections.unmodifiableSet(new LinkedHashSet<>(countedEvents)),
+          eventCountFlushIntervalMillis, bulkLaneCapacity, bulkLaneFlushIntervalMillis,
+          flushBackoffBaseMillis, flushBackoffMaxMillis, traitsCacheUserCapacity,
+          traitsCacheByteBudget, multiProcessTraitsCache,
+          traitResyncTtlMillis, traitResyncBatchSize, traitResyncIntervalMillis,
+          sessionCloseGracePeriodMillis, contentRefresher, forwardPushTokens,
+          Collections.unmodifiableSet(new LinkedHashSet<>(inAppMessageActivities)),
+          Collections.unmodifiableSet(new LinkedHashSet<>(excludedInAppMessageActivities)),
+          inAppMessageUnregisterDelayMillis, mainThreadBudgetMillis, mainThreadBudgetListener,
+          validationPolicy, payloadMaxLength, payloadMaxPropertiesBytes, metrics, tracer,
+          scheduler);
     }
   }
 }
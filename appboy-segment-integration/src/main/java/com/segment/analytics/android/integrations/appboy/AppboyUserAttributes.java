@@ -0,0 +1,53 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import com.appboy.AppboyUser;
+
+/** Forwards custom attributes mapped by {@link CustomAttributes} to a Braze user. */
+class AppboyUserAttributes implements CustomAttributes.Sink {
+
+  private final AppboyUser user;
+
+  AppboyUserAttributes(AppboyUser user) {
+    this.user = user;
+  }
+
+  @Override
+  public void set(String key, boolean value) {
+    user.setCustomUserAttribute(key, value);
+  }
+
+  @Override
+  public void set(String key, int value) {
+    user.setCustomUserAttribute(key, value);
+  }
+
+  @Override
+  public void set(String key, long value) {
+    user.setCustomUserAttribute(key, value);
+  }
+
+  @Override
+  public void set(String key, float value) {
+    user.setCustomUserAttribute(key, value);
+  }
+
+  @Override
+  public void set(String key, double value) {
+    user.setCustomUserAttribute(key, value);
+  }
+
+  @Override
+  public void set(String key, String value) {
+    user.setCustomUserAttribute(key, value);
+  }
+
+  @Override
+  public void setToSecondsFromEpoch(String key, long secondsFromEpoch) {
+    user.setCustomUserAttributeToSecondsFromEpoch(key, secondsFromEpoch);
+  }
+
+  @Override
+  public void increment(String key, int delta) {
+    user.incrementCustomUserAttribute(key, delta);
+  }
+}
@@ -0,0 +1,206 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import com.segment.analytics.Cartographer;
+import com.segment.analytics.Traits;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the traits in a file that several processes of the app can share. Every access holds a
+ * file lock, and each write bumps a stamp at the start of the file, so a process only parses the
+ * traits again after another process wrote them. The file is {@code <stamp><json>}, the stamp
+ * being a big-endian long.
+ *
+ * <p>File locks are held per process, so instances in the same process that share a file also
+ * take a lock object per file before locking it.
+ */
+class FileTraitsCache implements TraitsCache {
+
+  static final String FILENAME = "segment-braze-traits-cache";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int STAMP_BYTES = 8;
+  private static final ConcurrentMap<String, Object> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+  private final File file;
+  private final Object processLock;
+  private final Cartographer cartographer;
+  @Nullable
+  private FileChannel channel;
+  /** Stamp the parsed traits were read or written with. */
+  private long stamp;
+  @Nullable
+  private Traits loaded;
+
+  FileTraitsCache(Context context) {
+    this(new File(context.getFilesDir(), FILENAME));
+  }
+
+  FileTraitsCache(File file) {
+    this.file = file;
+    processLock = processLock(file);
+    cartographer = new Cartographer.Builder()
+        .lenient(true)
+        .prettyPrint(false)
+        .build();
+  }
+
+  @Override
+  public synchronized void save(Traits traits) {
+    if (write(cartographer.toJson(traits))) {
+      loaded = traits;
+    }
+  }
+
+  @Override
+  public synchronized Traits load() {
+    try {
+      synchronized (processLock) {
+        FileChannel channel = channel();
+        FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+        try {
+          long current = readStamp(channel);
+          if (loaded == null || current != stamp) {
+            loaded = parse(readJson(channel));
+            stamp = current;
+          }
+        } finally {
+          lock.release();
+        }
+      }
+    } catch (IOException e) {
+      close();
+      if (loaded == null) {
+        loaded = new Traits();
+      }
+    }
+    return loaded;
+  }
+
+  @Override
+  public synchronized void clear() {
+    if (write("")) {
+      loaded = new Traits();
+    }
+  }
+
+  @Override
+  public void switchUser(@Nullable String userId) {
+    clear();
+  }
+
+  private boolean write(String json) {
+    try {
+      synchronized (processLock) {
+        FileChannel channel = channel();
+        FileLock lock = channel.lock();
+        try {
+          long next = readStamp(channel) + 1;
+          byte[] bytes = json.getBytes(UTF_8);
+          ByteBuffer buffer = ByteBuffer.allocate(STAMP_BYTES + bytes.length);
+          buffer.putLong(next).put(bytes).flip();
+          long position = 0;
+          while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+          }
+          channel.truncate(position);
+          stamp = next;
+          return true;
+        } finally {
+          lock.release();
+        }
+      }
+    } catch (IOException e) {
+      close();
+      return false;
+    }
+  }
+
+  private static Object processLock(File file) {
+    String path;
+    try {
+      path = file.getCanonicalPath();
+    } catch (IOException e) {
+      path = file.getAbsolutePath();
+    }
+    Object lock = PROCESS_LOCKS.get(path);
+    if (lock == null) {
+      Object created = new Object();
+      lock = PROCESS_LOCKS.putIfAbsent(path, created);
+      if (lock == null) {
+        lock = created;
+      }
+    }
+    return lock;
+  }
+
+  private FileChannel channel() throws IOException {
+    if (channel == null) {
+      channel = new RandomAccessFile(file, "rw").getChannel();
+    }
+    return channel;
+  }
+
+  private void close() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException ignored) {
+      }
+      channel = null;
+    }
+  }
+
+  private static long readStamp(FileChannel channel) throws IOException {
+    if (channel.size() < STAMP_BYTES) {
+      return 0;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(STAMP_BYTES);
+    readFully(channel, buffer, 0);
+    return buffer.getLong(0);
+  }
+
+  private static String readJson(FileChannel channel) throws IOException {
+    long size = channel.size() - STAMP_BYTES;
+    if (size <= 0) {
+      return "";
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) size);
+    readFully(channel, buffer, STAMP_BYTES);
+    return new String(buffer.array(), UTF_8);
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new IOException("Unexpected end of " + FILENAME);
+      }
+    }
+  }
+
+  private Traits parse(String json) {
+    Traits result = new Traits();
+    if (json.isEmpty()) {
+      return result;
+    }
+    try {
+      for (Map.Entry<String, Object> entry : cartographer.fromJson(json).entrySet()) {
+        result.put(entry.getKey(), entry.getValue());
+      }
+    } catch (IOException | RuntimeException ignored) {
+      result.clear();
+    }
+    return result;
+  }
+}
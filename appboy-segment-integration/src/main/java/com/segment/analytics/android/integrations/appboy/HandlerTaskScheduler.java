@@ -0,0 +1,38 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * {@link TaskScheduler} backed by the main looper, which is where Segment delivers integration
+ * callbacks. The handler is only created once something is actually scheduled.
+ */
+class HandlerTaskScheduler implements TaskScheduler {
+
+  private Handler handler;
+
+  @Override
+  public void schedule(Runnable task, long delayMillis) {
+    getHandler().postDelayed(task, delayMillis);
+  }
+
+  @Override
+  public void cancel(Runnable task) {
+    if (handler != null) {
+      handler.removeCallbacks(task);
+    }
+  }
+
+  @Override
+  public long uptimeMillis() {
+    return SystemClock.uptimeMillis();
+  }
+
+  private Handler getHandler() {
+    if (handler == null) {
+      handler = new Handler(Looper.getMainLooper());
+    }
+    return handler;
+  }
+}
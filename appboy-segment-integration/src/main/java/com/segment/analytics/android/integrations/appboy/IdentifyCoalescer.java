@@ -0,0 +1,70 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import androidx.annotation.Nullable;
+import com.appboy.support.StringUtils;
+import com.segment.analytics.Traits;
+
+/**
+ * Merges identify calls for the same user that arrive within a fixed window into a single update.
+ * Traits are merged key by key, the latest value winning. The pending update is applied when the
+ * window closes, when an identify for a different user arrives, or when {@link #flush()} is called.
+ * Only the trait writes wait: the user of an identify that starts a new update is changed right
+ * away, so events tracked within the window already go to that user.
+ */
+class IdentifyCoalescer {
+
+  interface Target {
+    void changeUser(@Nullable String userId);
+
+    void updateUser(Traits traits);
+  }
+
+  private final TaskScheduler scheduler;
+  private final long windowMillis;
+  private final Target target;
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  @Nullable
+  private String pendingUserId;
+  @Nullable
+  private Traits pendingTraits;
+
+  IdentifyCoalescer(TaskScheduler scheduler, long windowMillis, Target target) {
+    this.scheduler = scheduler;
+    this.windowMillis = windowMillis;
+    this.target = target;
+  }
+
+  void enqueue(@Nullable String userId, Traits traits) {
+    if (pendingTraits != null && !StringUtils.isNullOrBlank(userId)
+        && !userId.equals(pendingUserId)) {
+      flush();
+    }
+
+    if (pendingTraits == null) {
+      target.changeUser(userId);
+      pendingTraits = new Traits();
+      scheduler.schedule(flushTask, windowMillis);
+    }
+    pendingTraits.putAll(traits);
+    if (!StringUtils.isNullOrBlank(userId)) {
+      pendingUserId = userId;
+    }
+  }
+
+  void flush() {
+    if (pendingTraits == null) {
+      return;
+    }
+    scheduler.cancel(flushTask);
+    Traits traits = pendingTraits;
+    pendingUserId = null;
+    pendingTraits = null;
+    target.updateUser(traits);
+  }
+}
@@ -0,0 +1,140 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.app.Activity;
+import androidx.annotation.Nullable;
+import com.appboy.ui.inappmessage.AppboyInAppMessageManager;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registers the in-app message manager on resume and unregisters it on pause, for the activities
+ * allowed by the configured policy. The decision is made once per activity class. With an
+ * unregister delay, pausing and resuming the same activity quickly (a dialog or a permission
+ * prompt on top of it) leaves the manager registered instead of unregistering and registering it.
+ */
+class InAppMessageRegistrar {
+
+  interface Manager {
+    void register(Activity activity);
+
+    void unregister(Activity activity);
+  }
+
+  static final Manager APPBOY_MANAGER = new Manager() {
+    @Override
+    public void register(Activity activity) {
+      AppboyInAppMessageManager.getInstance().registerInAppMessageManager(activity);
+    }
+
+    @Override
+    public void unregister(Activity activity) {
+      AppboyInAppMessageManager.getInstance().unregisterInAppMessageManager(activity);
+    }
+  };
+
+  private final Manager manager;
+  private final TaskScheduler scheduler;
+  private final Set<Class<? extends Activity>> allowlist;
+  private final Set<Class<? extends Activity>> denylist;
+  private final long unregisterDelayMillis;
+  private final Tracer tracer;
+  private final Map<Class<?>, Boolean> decisions = new HashMap<>();
+  private final Runnable unregisterTask = new Runnable() {
+    @Override
+    public void run() {
+      Activity activity = pendingUnregister != null ? pendingUnregister.get() : null;
+      pendingUnregister = null;
+      if (activity != null) {
+        unregister(activity);
+      }
+    }
+  };
+
+  @Nullable
+  private WeakReference<Activity> pendingUnregister;
+
+  InAppMessageRegistrar(Manager manager, TaskScheduler scheduler,
+      Set<Class<? extends Activity>> allowlist, Set<Class<? extends Activity>> denylist,
+      long unregisterDelayMillis, Tracer tracer) {
+    this.manager = manager;
+    this.scheduler = scheduler;
+    this.allowlist = allowlist;
+    this.denylist = denylist;
+    this.unregisterDelayMillis = unregisterDelayMillis;
+    this.tracer = tracer;
+  }
+
+  void onActivityResumed(Activity activity) {
+    if (!isEligible(activity.getClass())) {
+      return;
+    }
+    if (pendingUnregister != null) {
+      Activity pending = pendingUnregister.get();
+      scheduler.cancel(unregisterTask);
+      pendingUnregister = null;
+      if (pending == activity) {
+        return;
+      }
+      if (pending != null) {
+        unregister(pending);
+      }
+    }
+    tracer.beginSection("Braze.registerInAppMessageManager");
+    try {
+      manager.register(activity);
+    } finally {
+      tracer.endSection();
+    }
+  }
+
+  void onActivityPaused(Activity activity) {
+    if (!isEligible(activity.getClass())) {
+      return;
+    }
+    if (unregisterDelayMillis > 0) {
+      pendingUnregister = new WeakReference<>(activity);
+      scheduler.schedule(unregisterTask, unregisterDelayMillis);
+    } else {
+      unregister(activity);
+    }
+  }
+
+  private void unregister(Activity activity) {
+    tracer.beginSection("Braze.unregisterInAppMessageManager");
+    try {
+      manager.unregister(activity);
+    } finally {
+      tracer.endSection();
+    }
+  }
+
+  private boolean isEligible(Class<?> activityClass) {
+    Boolean decision = decisions.get(activityClass);
+    if (decision == null) {
+      decision = decide(activityClass);
+      decisions.put(activityClass, decision);
+    }
+    return decision;
+  }
+
+  private boolean decide(Class<?> activityClass) {
+    if (activityClass.isAnnotationPresent(SkipInAppMessageRegistration.class)) {
+      return false;
+    }
+    if (!allowlist.isEmpty()) {
+      return matches(allowlist, activityClass);
+    }
+    return !matches(denylist, activityClass);
+  }
+
+  private static boolean matches(Set<Class<? extends Activity>> classes, Class<?> activityClass) {
+    for (Class<? extends Activity> candidate : classes) {
+      if (candidate.isAssignableFrom(activityClass)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
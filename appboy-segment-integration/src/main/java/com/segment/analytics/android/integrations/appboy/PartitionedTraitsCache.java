@@ -0,0 +1,203 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
+import com.segment.analytics.Cartographer;
+import com.segment.analytics.Traits;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static android.content.Context.MODE_PRIVATE;
+import static com.segment.analytics.internal.Utils.isNullOrEmpty;
+
+/**
+ * Keeps the last emitted traits of several users, so switching back to a previous account diffs
+ * against what that account was last sent instead of resending everything. Partitions are keyed by
+ * the mapped user id and evicted least recently used first, once there are more than
+ * {@code userCapacity} of them or their serialized size exceeds {@code byteBudget}. The size is
+ * measured in characters of JSON, which is close enough to bytes for trait payloads.
+ */
+class PartitionedTraitsCache implements TraitsCache {
+
+  private static final String PREFS_FILENAME = "segment-braze-traits-cache-partitioned";
+  private static final String LEGACY_PREFS_FILENAME = "segment-braze-traits-cache";
+  private static final String LEGACY_PREFS_KEY = "content";
+  private static final String INDEX_KEY = "index";
+  private static final String INDEX_USERS = "users";
+  private static final String INDEX_CURRENT = "current";
+  private static final String PARTITION_PREFIX = "traits:";
+  /** Partition used while no user has been identified, or after a reset. */
+  private static final String ANONYMOUS = "";
+
+  private final Cartographer cartographer;
+  private final SharedPreferences preferences;
+  private final UserIdMapper userIdMapper;
+  private final int userCapacity;
+  private final long byteBudget;
+  /** Partition sizes, least recently used first. */
+  private final LinkedHashMap<String, Integer> sizes = new LinkedHashMap<>(16, 0.75f, true);
+  private String currentUser = ANONYMOUS;
+  /** Parsed traits of the current partition, so its JSON is only read once. */
+  @Nullable
+  private Traits loaded;
+  private long totalSize;
+
+  PartitionedTraitsCache(Context context, UserIdMapper userIdMapper, int userCapacity,
+      long byteBudget) {
+    this.userIdMapper = userIdMapper;
+    this.userCapacity = userCapacity;
+    this.byteBudget = byteBudget;
+    preferences = context.getSharedPreferences(PREFS_FILENAME, MODE_PRIVATE);
+    cartographer = new Cartographer.Builder()
+        .lenient(true)
+        .prettyPrint(false)
+        .build();
+    readIndex();
+    migrateLegacyCache(context);
+  }
+
+  @Override
+  public void save(Traits traits) {
+    String json = cartographer.toJson(traits);
+    Integer previous = sizes.put(currentUser, json.length());
+    totalSize += json.length() - (previous != null ? previous : 0);
+    SharedPreferences.Editor editor = preferences.edit()
+        .putString(PARTITION_PREFIX + currentUser, json);
+    evict(editor);
+    writeIndex(editor);
+    editor.apply();
+    loaded = traits;
+  }
+
+  @Override
+  public Traits load() {
+    if (loaded == null) {
+      loaded = read();
+    }
+    return loaded;
+  }
+
+  private Traits read() {
+    String json = preferences.getString(PARTITION_PREFIX + currentUser, null);
+
+    if (isNullOrEmpty(json)) return new Traits();
+
+    try {
+      Map<String, Object> map = cartographer.fromJson(json);
+      Traits result = new Traits();
+      result.putAll(map);
+      return result;
+    } catch (IOException ignored) {
+      return new Traits();
+    }
+  }
+
+  @Override
+  public void clear() {
+    sizes.clear();
+    totalSize = 0;
+    currentUser = ANONYMOUS;
+    loaded = null;
+    preferences.edit().clear().apply();
+  }
+
+  /**
+   * Makes {@code userId} the partition later {@link #load()} and {@link #save(Traits)} calls use.
+   * {@code null} selects a fresh anonymous partition, discarding whatever it held.
+   */
+  @Override
+  public void switchUser(@Nullable String userId) {
+    SharedPreferences.Editor editor = preferences.edit();
+    if (userId == null) {
+      userId = ANONYMOUS;
+      remove(ANONYMOUS, editor);
+    } else if (sizes.containsKey(userId)) {
+      sizes.get(userId); // marks the partition as most recently used
+    }
+    if (!userId.equals(currentUser) || userId.equals(ANONYMOUS)) {
+      loaded = null;
+    }
+    currentUser = userId;
+    writeIndex(editor);
+    editor.apply();
+  }
+
+  private void evict(SharedPreferences.Editor editor) {
+    Iterator<Map.Entry<String, Integer>> iterator = sizes.entrySet().iterator();
+    while (iterator.hasNext() && (sizes.size() > userCapacity || totalSize > byteBudget)) {
+      Map.Entry<String, Integer> eldest = iterator.next();
+      if (eldest.getKey().equals(currentUser)) {
+        continue;
+      }
+      totalSize -= eldest.getValue();
+      editor.remove(PARTITION_PREFIX + eldest.getKey());
+      iterator.remove();
+    }
+  }
+
+  private void remove(String userId, SharedPreferences.Editor editor) {
+    Integer size = sizes.remove(userId);
+    if (size != null) {
+      totalSize -= size;
+    }
+    editor.remove(PARTITION_PREFIX + userId);
+  }
+
+  private void readIndex() {
+    String json = preferences.getString(INDEX_KEY, null);
+    if (isNullOrEmpty(json)) return;
+
+    try {
+      Map<String, Object> index = cartographer.fromJson(json);
+      Object users = index.get(INDEX_USERS);
+      if (users instanceof List) {
+        for (Object user : (List<?>) users) {
+          String partition = preferences.getString(PARTITION_PREFIX + user, null);
+          if (partition != null) {
+            sizes.put(String.valueOf(user), partition.length());
+            totalSize += partition.length();
+          }
+        }
+      }
+      Object current = index.get(INDEX_CURRENT);
+      currentUser = current instanceof String ? (String) current : ANONYMOUS;
+    } catch (IOException ignored) {
+      // A corrupt index only costs a full resend; the partitions are rebuilt as users identify.
+      preferences.edit().clear().apply();
+    }
+  }
+
+  private void writeIndex(SharedPreferences.Editor editor) {
+    Map<String, Object> index = new LinkedHashMap<>();
+    index.put(INDEX_USERS, new ArrayList<>(sizes.keySet()));
+    index.put(INDEX_CURRENT, currentUser);
+    editor.putString(INDEX_KEY, cartographer.toJson(index));
+  }
+
+  /**
+   * Moves the single blob written by {@link PreferencesTraitsCache} into the partition of the user
+   * it was saved for, which becomes the current one.
+   */
+  private void migrateLegacyCache(Context context) {
+    SharedPreferences legacy = context.getSharedPreferences(LEGACY_PREFS_FILENAME, MODE_PRIVATE);
+    String json = legacy.getString(LEGACY_PREFS_KEY, null);
+    if (json == null) return;
+
+    legacy.edit().clear().apply();
+    try {
+      Map<String, Object> map = cartographer.fromJson(json);
+      Object userId = map.get("userId");
+      Traits traits = new Traits();
+      traits.putAll(map);
+      switchUser(userId != null ? userIdMapper.transformUserId(String.valueOf(userId)) : null);
+      save(traits);
+    } catch (IOException ignored) {
+      // Nothing worth migrating.
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
+
+import static android.content.Context.MODE_PRIVATE;
+
+class PreferencesPushTokenStore implements PushTokenRegistration.Store {
+
+  private static final String PREFS_FILENAME = "segment-braze-push-token";
+  private static final String HASH_KEY = "hash";
+
+  private final SharedPreferences preferences;
+
+  PreferencesPushTokenStore(Context context) {
+    preferences = context.getSharedPreferences(PREFS_FILENAME, MODE_PRIVATE);
+  }
+
+  @Nullable
+  @Override
+  public String load() {
+    return preferences.getString(HASH_KEY, null);
+  }
+
+  @Override
+  public void save(String hash) {
+    preferences.edit().putString(HASH_KEY, hash).apply();
+  }
+}
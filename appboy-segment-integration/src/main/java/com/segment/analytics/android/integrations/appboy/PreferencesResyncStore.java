@@ -0,0 +1,55 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static android.content.Context.MODE_PRIVATE;
+
+/** Keeps the last-sent time of each trait as a long preference named after the trait. */
+class PreferencesResyncStore implements TraitResync.Store {
+
+  private static final String PREFS_FILENAME = "segment-braze-traits-sent-at";
+
+  private final SharedPreferences preferences;
+
+  PreferencesResyncStore(Context context) {
+    preferences = context.getSharedPreferences(PREFS_FILENAME, MODE_PRIVATE);
+  }
+
+  @Override
+  public Map<String, Long> load() {
+    Map<String, Long> sentAt = new HashMap<>();
+    for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+      if (entry.getValue() instanceof Long) {
+        sentAt.put(entry.getKey(), (Long) entry.getValue());
+      }
+    }
+    return sentAt;
+  }
+
+  @Override
+  public void put(Map<String, Long> sentAt) {
+    SharedPreferences.Editor editor = preferences.edit();
+    for (Map.Entry<String, Long> entry : sentAt.entrySet()) {
+      editor.putLong(entry.getKey(), entry.getValue());
+    }
+    editor.apply();
+  }
+
+  @Override
+  public void remove(Collection<String> keys) {
+    SharedPreferences.Editor editor = preferences.edit();
+    for (String key : keys) {
+      editor.remove(key);
+    }
+    editor.apply();
+  }
+
+  @Override
+  public void clear() {
+    preferences.edit().clear().apply();
+  }
+}
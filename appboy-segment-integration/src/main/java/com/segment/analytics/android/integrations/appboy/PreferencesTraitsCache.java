@@ -2,6 +2,7 @@ package com.segment.analytics.android.integrations.appboy;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
 import com.segment.analytics.Cartographer;
 import com.segment.analytics.Traits;
 import java.io.IOException;
@@ -18,6 +19,9 @@ public class PreferencesTraitsCache implements TraitsCache {
 
   private final Cartographer cartographer;
   private final SharedPreferences preferences;
+  /** Parsed form of the stored traits, so the JSON is only read once. */
+  @Nullable
+  private Traits loaded;
 
   public PreferencesTraitsCache(Context context) {
     preferences = context.getSharedPreferences(PREFS_FILENAME, MODE_PRIVATE);
@@ -31,10 +35,18 @@ public class PreferencesTraitsCache implements TraitsCache {
   public void save(Traits traits) {
     String json = cartographer.toJson(traits);
     preferences.edit().putString(PREFS_KEY, json).apply();
+    loaded = traits;
   }
 
   @Override
   public Traits load() {
+    if (loaded == null) {
+      loaded = read();
+    }
+    return loaded;
+  }
+
+  private Traits read() {
     String json = preferences.getString(PREFS_KEY, null);
 
     if (isNullOrEmpty(json)) return new Traits();
@@ -50,6 +62,12 @@ public class PreferencesTraitsCache implements TraitsCache {
   @Override
   public void clear() {
     preferences.edit().clear().apply();
+    loaded = null;
+  }
+
+  @Override
+  public void switchUser(@Nullable String userId) {
+    clear();
   }
 
   private Traits buildTraits(Map<String, Object> map) {
@@ -0,0 +1,83 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import androidx.annotation.Nullable;
+import com.segment.analytics.Traits;
+import java.util.concurrent.Callable;
+
+/**
+ * Creates a cache and loads its traits on a background thread, so opening the preferences file and
+ * parsing the stored JSON stay off the thread that builds the integration. Calls made before the
+ * load is done wait for it.
+ */
+class PrefetchedTraitsCache implements TraitsCache {
+
+  private final BackgroundLoader<TraitsCache> loader;
+  private final Tracer tracer;
+
+  PrefetchedTraitsCache(final Callable<TraitsCache> factory, final Tracer tracer) {
+    this.tracer = tracer;
+    loader = new BackgroundLoader<>("Segment-Braze-TraitsCache", new Callable<TraitsCache>() {
+      @Override
+      public TraitsCache call() throws Exception {
+        tracer.beginSection("Braze.prefetchTraitsCache");
+        try {
+          TraitsCache cache = factory.call();
+          cache.load();
+          return cache;
+        } finally {
+          tracer.endSection();
+        }
+      }
+    });
+  }
+
+  @Override
+  public void save(Traits traits) {
+    TraitsCache delegate = delegate();
+    tracer.beginSection("Braze.saveTraits");
+    try {
+      delegate.save(traits);
+    } finally {
+      tracer.endSection();
+    }
+  }
+
+  @Override
+  public Traits load() {
+    TraitsCache delegate = delegate();
+    tracer.beginSection("Braze.loadTraits");
+    try {
+      return delegate.load();
+    } finally {
+      tracer.endSection();
+    }
+  }
+
+  @Override
+  public void clear() {
+    delegate().clear();
+  }
+
+  @Override
+  public void switchUser(@Nullable String userId) {
+    TraitsCache delegate = delegate();
+    tracer.beginSection("Braze.switchTraitsUser");
+    try {
+      delegate.switchUser(userId);
+    } finally {
+      tracer.endSection();
+    }
+  }
+
+  private TraitsCache delegate() {
+    if (loader.isDone()) {
+      return loader.get();
+    }
+    tracer.beginSection("Braze.awaitTraitsCache");
+    try {
+      return loader.get();
+    } finally {
+      tracer.endSection();
+    }
+  }
+}
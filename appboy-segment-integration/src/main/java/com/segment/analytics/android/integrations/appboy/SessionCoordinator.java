@@ -0,0 +1,107 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.app.Activity;
+import androidx.annotation.Nullable;
+import com.appboy.IAppboy;
+import java.lang.ref.WeakReference;
+
+/**
+ * Opens a Braze session when the first activity starts and closes it once the last one stops, so
+ * navigating between activities doesn't close and reopen the session. With a grace period the
+ * close is delayed and cancelled if another activity starts in time, which covers configuration
+ * changes where the old activity stops before its replacement starts.
+ */
+class SessionCoordinator {
+
+  private final IAppboy appboy;
+  private final TaskScheduler scheduler;
+  private final Tracer tracer;
+  private final long gracePeriodMillis;
+  private final Runnable closeTask = new Runnable() {
+    @Override
+    public void run() {
+      closePending();
+    }
+  };
+
+  private int startedActivities;
+  private boolean closePending;
+  /** The activity the session was opened with, which Braze expects back on close. */
+  @Nullable
+  private WeakReference<Activity> sessionActivity;
+  @Nullable
+  private WeakReference<Activity> lastStoppedActivity;
+
+  SessionCoordinator(IAppboy appboy, TaskScheduler scheduler, Tracer tracer,
+      long gracePeriodMillis) {
+    this.appboy = appboy;
+    this.scheduler = scheduler;
+    this.tracer = tracer;
+    this.gracePeriodMillis = gracePeriodMillis;
+  }
+
+  /** Returns whether a new session was opened. */
+  boolean onActivityStarted(Activity activity) {
+    startedActivities++;
+    if (closePending) {
+      closePending = false;
+      scheduler.cancel(closeTask);
+      return false;
+    }
+    if (startedActivities == 1) {
+      sessionActivity = new WeakReference<>(activity);
+      tracer.beginSection("Braze.openSession");
+      try {
+        appboy.openSession(activity);
+      } finally {
+        tracer.endSection();
+      }
+      return true;
+    }
+    return false;
+  }
+
+  void onActivityStopped(Activity activity) {
+    if (startedActivities > 0) {
+      startedActivities--;
+    }
+    if (startedActivities > 0 || closePending) {
+      return;
+    }
+    if (gracePeriodMillis > 0) {
+      lastStoppedActivity = new WeakReference<>(activity);
+      closePending = true;
+      scheduler.schedule(closeTask, gracePeriodMillis);
+    } else {
+      close(activity);
+    }
+  }
+
+  /** Whether any activity is started, i.e. the app is in the foreground. */
+  boolean hasStartedActivities() {
+    return startedActivities > 0;
+  }
+
+  private void closePending() {
+    Activity stopped = lastStoppedActivity != null ? lastStoppedActivity.get() : null;
+    closePending = false;
+    lastStoppedActivity = null;
+    close(stopped);
+  }
+
+  private void close(@Nullable Activity stopped) {
+    Activity activity = sessionActivity != null ? sessionActivity.get() : null;
+    sessionActivity = null;
+    if (activity == null) {
+      activity = stopped;
+    }
+    if (activity != null) {
+      tracer.beginSection("Braze.closeSession");
+      try {
+        appboy.closeSession(activity);
+      } finally {
+        tracer.endSection();
+      }
+    }
+  }
+}
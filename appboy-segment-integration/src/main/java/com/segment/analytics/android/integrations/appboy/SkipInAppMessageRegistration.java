@@ -0,0 +1,17 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an activity that never shows in-app messages, such as a splash or a transparent overlay.
+ * The integration won't register the {@code AppboyInAppMessageManager} when it resumes.
+ */
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface SkipInAppMessageRegistration {
+}
@@ -1,11 +1,16 @@
 package com.segment.analytics.android.integrations.appboy;
 
+import androidx.annotation.Nullable;
 import com.segment.analytics.Traits;
 
 interface TraitsCache {
   void save(Traits traits);
 
+  /** Returns the last saved traits. The result may be shared and must not be modified. */
   Traits load();
 
   void clear();
+
+  /** Called when the Braze user changes; {@code null} on reset. */
+  void switchUser(@Nullable String userId);
 }
@@ -7,7 +7,10 @@ import androidx.test.core.app.ApplicationProvider;
 import com.appboy.AppboyUser;
 import com.appboy.IAppboy;
 import com.appboy.enums.Gender;
+import com.appboy.enums.Month;
+import com.appboy.events.BrazeNetworkFailureEvent;
 import com.appboy.models.outgoing.AppboyProperties;
+import com.appboy.models.outgoing.AttributionData;
 import com.segment.analytics.Analytics;
 import com.segment.analytics.Properties;
 import com.segment.analytics.Traits;
@@ -17,18 +20,31 @@ import com.segment.analytics.integrations.Logger;
 import com.segment.analytics.integrations.ScreenPayload;
 import com.segment.analytics.integrations.TrackPayload;
 import java.math.BigDecimal;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowLooper;
 
 import static com.segment.analytics.Utils.createTraits;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -85,6 +101,65 @@ public class AppboyTest {
     verifyNoMoreAppboyInteractions();
   }
 
+  @Test
+  public void testIdentifyBirthday() {
+    Calendar birthday = Calendar.getInstance(Locale.US);
+    birthday.clear();
+    birthday.set(1990, Calendar.MAY, 15, 0, 0);
+    Traits traits = createTraits("userId");
+    traits.putBirthday(birthday.getTime());
+    mIntegration.identify(getBasicIdentifyPayloadWithTraits(traits));
+    verify(mAppboyUser).setDateOfBirth(1990, Month.MAY, 15);
+  }
+
+  @Test
+  public void testNavigatingBetweenActivitiesKeepsSessionOpen() {
+    Activity first = mock(Activity.class);
+    Activity second = mock(Activity.class);
+    mIntegration.onActivityStarted(first);
+    mIntegration.onActivityStarted(second);
+    mIntegration.onActivityStopped(first);
+    verify(mAppboy).openSession(first);
+    verifyNoMoreAppboyInteractions();
+
+    mIntegration.onActivityStopped(second);
+    verify(mAppboy).closeSession(first);
+    verifyNoMoreAppboyInteractions();
+  }
+
+  @Test
+  public void testRotationWithinGracePeriodKeepsSessionOpen() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .sessionCloseGracePeriod(1000)
+        .build());
+    Activity beforeRotation = mock(Activity.class);
+    Activity afterRotation = mock(Activity.class);
+    integration.onActivityStarted(beforeRotation);
+    integration.onActivityStopped(beforeRotation);
+    integration.onActivityStarted(afterRotation);
+    ShadowLooper.idleMainLooper(2000, TimeUnit.MILLISECONDS);
+
+    verify(mAppboy).openSession(beforeRotation);
+    verifyNoMoreAppboyInteractions();
+  }
+
+  @Test
+  public void testSessionClosesAfterGracePeriod() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .sessionCloseGracePeriod(1000)
+        .build());
+    Activity activity = mock(Activity.class);
+    integration.onActivityStarted(activity);
+    integration.onActivityStopped(activity);
+    ShadowLooper.idleMainLooper(999, TimeUnit.MILLISECONDS);
+    verify(mAppboy).openSession(activity);
+    verifyNoMoreAppboyInteractions();
+
+    ShadowLooper.idleMainLooper(1, TimeUnit.MILLISECONDS);
+    verify(mAppboy).closeSession(activity);
+    verifyNoMoreAppboyInteractions();
+  }
+
   @Test
   public void testIdentifyCallsChangeUser() {
     // The userId is stripped because Android's TextUtils is returning
@@ -184,6 +259,97 @@ public class AppboyTest {
     verify(mAppboy, Mockito.times(2)).changeUser("userId");
   }
 
+  @Test
+  public void testCoalescedIdentifiesAreAppliedOnceWhenWindowCloses() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .enableIdentifyCoalescing(1000)
+        .build());
+    Traits firstStep = createTraits("userId");
+    firstStep.putEmail("a@o.o");
+    firstStep.put("step", 1);
+    Traits secondStep = createTraits("userId");
+    secondStep.putFirstName("first");
+    secondStep.put("step", 2);
+
+    integration.identify(getBasicIdentifyPayloadWithTraits(firstStep));
+    integration.identify(getBasicIdentifyPayloadWithTraits(secondStep));
+    verify(mAppboy).changeUser("userId");
+    verifyNoMoreAppboyInteractions();
+
+    ShadowLooper.idleMainLooper(1000, TimeUnit.MILLISECONDS);
+    verify(mAppboy, Mockito.times(1)).changeUser("userId");
+    verify(mAppboy, Mockito.times(1)).getCurrentUser();
+    verify(mAppboyUser).setEmail("a@o.o");
+    verify(mAppboyUser).setFirstName("first");
+    verify(mAppboyUser).setCustomUserAttribute("step", 2);
+    verify(mAppboyUser, Mockito.never()).setCustomUserAttribute("step", 1);
+  }
+
+  @Test
+  public void testFlushAppliesPendingCoalescedIdentify() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .enableIdentifyCoalescing(1000)
+        .build());
+    Traits traits = createTraits("userId");
+    traits.putEmail("a@o.o");
+    integration.identify(getBasicIdentifyPayloadWithTraits(traits));
+
+    integration.flush();
+    verify(mAppboy).changeUser("userId");
+    verify(mAppboyUser).setEmail("a@o.o");
+    verify(mAppboy).requestImmediateDataFlush();
+
+    ShadowLooper.idleMainLooper(1000, TimeUnit.MILLISECONDS);
+    verify(mAppboy, Mockito.times(1)).getCurrentUser();
+  }
+
+  @Test
+  public void testUserChangeAppliesPendingCoalescedIdentify() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .enableIdentifyCoalescing(1000)
+        .build());
+    Traits traits = createTraits("userId");
+    traits.putEmail("a@o.o");
+    integration.identify(getBasicIdentifyPayloadWithTraits(traits));
+
+    Traits otherTraits = createTraits("otherUserId");
+    otherTraits.putEmail("b@o.o");
+    integration.identify(new IdentifyPayload.Builder()
+        .userId("otherUserId")
+        .traits(otherTraits)
+        .build());
+    InOrder inOrder = Mockito.inOrder(mAppboy, mAppboyUser);
+    inOrder.verify(mAppboy).changeUser("userId");
+    inOrder.verify(mAppboyUser).setEmail("a@o.o");
+    inOrder.verify(mAppboy).changeUser("otherUserId");
+    verify(mAppboyUser, never()).setEmail("b@o.o");
+
+    ShadowLooper.idleMainLooper(1000, TimeUnit.MILLISECONDS);
+    verify(mAppboy, Mockito.times(1)).changeUser("otherUserId");
+    verify(mAppboyUser).setEmail("b@o.o");
+  }
+
+  @Test
+  public void testCoalescedIdentifyChangesUserBeforeTrackedPurchase() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .enableIdentifyCoalescing(1000)
+        .build());
+    integration.identify(new IdentifyPayload.Builder()
+        .userId("u2")
+        .traits(createTraits("u2"))
+        .build());
+    Properties properties = new Properties();
+    properties.putRevenue(10.0d);
+    integration.track(getBasicTrackPayloadWithEventAndProps("Order Completed", properties));
+
+    InOrder inOrder = Mockito.inOrder(mAppboy);
+    inOrder.verify(mAppboy).changeUser("u2");
+    inOrder.verify(mAppboy).logPurchase("Order Completed", "USD", new BigDecimal("10.0"));
+
+    ShadowLooper.idleMainLooper(1000, TimeUnit.MILLISECONDS);
+    verify(mAppboy, Mockito.times(1)).changeUser("u2");
+  }
+
   @Test
   public void testTrackLogsCustomEventWithoutProperties() {
     TrackPayload trackPayload = getBasicTrackPayloadWithEventAndProps("myEvent", null);
@@ -273,6 +439,216 @@ public class AppboyTest {
     verifyNoMoreAppboyInteractions();
   }
 
+  @Test
+  public void testTrackLogsPurchaseForConfiguredPurchaseEvent() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .purchaseEvents("Product Purchased")
+        .build());
+    TrackPayload trackPayload = getBasicTrackPayloadWithEventAndProps("Product Purchased", null);
+    integration.track(trackPayload);
+    verify(mAppboy).logPurchase("Product Purchased", "USD", new BigDecimal("0.0"));
+    verifyNoMoreAppboyInteractions();
+  }
+
+  @Test
+  public void testTrackLogsPurchaseForEventWithStringRevenue() {
+    Properties purchaseProperties = new Properties();
+    purchaseProperties.put("revenue", "10.5");
+    TrackPayload trackPayload =
+        getBasicTrackPayloadWithEventAndProps("revenueEvent", purchaseProperties);
+    mIntegration.track(trackPayload);
+    verify(mAppboy).logPurchase("revenueEvent", "USD", new BigDecimal("10.5"));
+    verifyNoMoreAppboyInteractions();
+  }
+
+  @Test
+  public void testTrackCountsConfiguredEventsUntilFlush() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .countEvents(30000, "Article Read")
+        .build());
+    integration.track(getBasicTrackPayloadWithEventAndProps("Article Read", null));
+    integration.track(getBasicTrackPayloadWithEventAndProps("Article Read", null));
+    verifyNoMoreAppboyInteractions();
+
+    integration.flush();
+
+    verify(mAppboyUser).incrementCustomUserAttribute("Article Read", 2);
+    verify(mAppboy, never()).logCustomEvent(any(String.class));
+  }
+
+  @Test
+  public void testCountedEventsAreFlushedAfterInterval() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .countEvents(30000, "Article Read")
+        .build());
+    integration.track(getBasicTrackPayloadWithEventAndProps("Article Read", null));
+
+    ShadowLooper.idleMainLooper(30000, TimeUnit.MILLISECONDS);
+
+    verify(mAppboyUser).incrementCustomUserAttribute("Article Read", 1);
+  }
+
+  @Test
+  public void testRepeatedEventPropertiesUseRememberedShape() {
+    AppboyIntegrationMetrics metrics = new AppboyIntegrationMetrics();
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .metrics(metrics)
+        .build());
+    Properties properties = new Properties().putValue("sku", "G-32").putValue("price", 18.99d);
+
+    integration.track(getBasicTrackPayloadWithEventAndProps("Product Viewed", properties));
+    integration.track(getBasicTrackPayloadWithEventAndProps("Product Viewed", properties));
+
+    verify(mAppboy, Mockito.times(2)).logCustomEvent(eq("Product Viewed"),
+        any(AppboyProperties.class));
+    assertEquals(1, metrics.getPropertyShapeHits());
+    assertEquals(1, metrics.getPropertyShapeMisses());
+  }
+
+  @Test
+  public void testValidationTruncatesOversizedPropertyValues() {
+    AppboyIntegrationMetrics metrics = new AppboyIntegrationMetrics();
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .validatePayloads(ValidationPolicy.TRUNCATE)
+        .payloadLimits(4, PayloadValidator.BRAZE_MAX_PROPERTIES_BYTES)
+        .metrics(metrics)
+        .build());
+    Properties properties = new Properties().putValue("sku", "G-32-XL");
+
+    integration.track(getBasicTrackPayloadWithEventAndProps("View", properties));
+
+    verify(mAppboy).logCustomEvent(eq("View"), any(AppboyProperties.class));
+    assertEquals("G-32-XL", properties.getString("sku"));
+    assertEquals(1, metrics.getValuesTooLong());
+  }
+
+  @Test
+  public void testValidationDropsEventWithOversizedName() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .validatePayloads(ValidationPolicy.DROP_EVENT)
+        .payloadLimits(4, PayloadValidator.BRAZE_MAX_PROPERTIES_BYTES)
+        .build());
+
+    integration.track(getBasicTrackPayloadWithEventAndProps("Product Viewed", null));
+
+    verifyNoMoreAppboyInteractions();
+  }
+
+  @Test
+  public void testValidationChecksRenamedKeys() {
+    AppboyIntegrationMetrics metrics = new AppboyIntegrationMetrics();
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .renameKey("sku", "product_stock_keeping_unit")
+        .validatePayloads(ValidationPolicy.DROP_KEY)
+        .payloadLimits(10, PayloadValidator.BRAZE_MAX_PROPERTIES_BYTES)
+        .metrics(metrics)
+        .build());
+    Properties properties = new Properties()
+        .putValue("sku", "G-32")
+        .putValue("price", 2.5d);
+
+    integration.track(getBasicTrackPayloadWithEventAndProps("View", properties));
+
+    ArgumentCaptor<AppboyProperties> captor = ArgumentCaptor.forClass(AppboyProperties.class);
+    verify(mAppboy).logCustomEvent(eq("View"), captor.capture());
+    JSONObject json = captor.getValue().forJsonPut();
+    assertEquals(1, json.length());
+    assertEquals(2.5d, json.optDouble("price"), 0);
+    assertEquals(1, metrics.getKeysTooLong());
+  }
+
+  @Test
+  public void testValidationNeverDropsPurchases() {
+    AppboyIntegrationMetrics metrics = new AppboyIntegrationMetrics();
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .validatePayloads(ValidationPolicy.DROP_EVENT)
+        .payloadLimits(10, PayloadValidator.BRAZE_MAX_PROPERTIES_BYTES)
+        .metrics(metrics)
+        .build());
+    Properties properties = new Properties()
+        .putValue("coupon", "a coupon code over the limit")
+        .putValue("store", "online")
+        .putRevenue(25.0d);
+    properties.putProducts(new Properties.Product("p1", "sku-1", 20d),
+        new Properties.Product("p2", "sku-2", 5d));
+
+    integration.track(getBasicTrackPayloadWithEventAndProps("Order Completed Today", properties));
+
+    ArgumentCaptor<AppboyProperties> captor = ArgumentCaptor.forClass(AppboyProperties.class);
+    verify(mAppboy).logPurchase(eq("p1"), eq("USD"), eq(new BigDecimal("20.0")),
+        captor.capture());
+    verify(mAppboy).logPurchase(eq("p2"), eq("USD"), eq(new BigDecimal("5.0")),
+        any(AppboyProperties.class));
+    JSONObject json = captor.getValue().forJsonPut();
+    assertEquals("online", json.optString("store"));
+    assertEquals(2, json.optJSONArray("products").length());
+    assertTrue(json.isNull("coupon"));
+    assertEquals(0, metrics.getDroppedEvents());
+  }
+
+  @Test
+  public void testPurchaseIsDeliveredWhileBulkLaneIsSaturated() {
+    AppboyIntegrationMetrics metrics = new AppboyIntegrationMetrics();
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .bulkEventLane(2, 30000)
+        .metrics(metrics)
+        .build());
+    for (int i = 0; i < 5; i++) {
+      integration.track(getBasicTrackPayloadWithEventAndProps("Screen Scrolled", null));
+    }
+    Properties purchase = new Properties();
+    purchase.putRevenue(10.0d);
+
+    integration.track(getBasicTrackPayloadWithEventAndProps("revenueEvent", purchase));
+
+    verify(mAppboy).logPurchase("revenueEvent", "USD", new BigDecimal("10.0"));
+    verify(mAppboy, never()).logCustomEvent(any(String.class));
+    assertEquals(3, metrics.getDroppedBulkEvents());
+
+    ShadowLooper.idleMainLooper(30000, TimeUnit.MILLISECONDS);
+
+    verify(mAppboy, Mockito.times(2)).logCustomEvent("Screen Scrolled");
+  }
+
+  @Test
+  public void testBulkLaneIsFlushedBeforeUserChanges() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .bulkEventLane(10, 30000)
+        .build());
+    integration.track(getBasicTrackPayloadWithEventAndProps("Screen Scrolled", null));
+
+    integration.identify(new IdentifyPayload.Builder().userId("other").traits(new Traits())
+        .build());
+
+    InOrder inOrder = Mockito.inOrder(mAppboy);
+    inOrder.verify(mAppboy).logCustomEvent("Screen Scrolled");
+    inOrder.verify(mAppboy).changeUser("other");
+  }
+
+  @Test
+  public void testBulkEventsStayWithTheirUserWhenIdentifiesAreCoalesced() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .bulkEventLane(10, 30000)
+        .enableIdentifyCoalescing(1000)
+        .build());
+    integration.identify(new IdentifyPayload.Builder().userId("first").traits(new Traits())
+        .build());
+    integration.track(getBasicTrackPayloadWithEventAndProps("First Event", null));
+    integration.identify(new IdentifyPayload.Builder().userId("second").traits(new Traits())
+        .build());
+    integration.track(getBasicTrackPayloadWithEventAndProps("Second Event", null));
+
+    ShadowLooper.idleMainLooper(1000, TimeUnit.MILLISECONDS);
+    verify(mAppboy, never()).logCustomEvent("Second Event");
+    integration.flush();
+
+    InOrder inOrder = Mockito.inOrder(mAppboy);
+    inOrder.verify(mAppboy).changeUser("first");
+    inOrder.verify(mAppboy).logCustomEvent("First Event");
+    inOrder.verify(mAppboy).changeUser("second");
+    inOrder.verify(mAppboy).logCustomEvent("Second Event");
+  }
+
   @Test
   public void testScreenDoesNotCallAppboy() {
     mIntegration.screen(new ScreenPayload.Builder().userId("userId").name("foo").build());
@@ -312,6 +688,385 @@ public class AppboyTest {
     verifyNoMoreAppboyInteractions();
   }
 
+  @Test
+  public void testSwitchingBackToPreviousUserOnlySendsChangedTraits() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .enableTraitDiffing(true)
+        .enableTraitsCachePartitioning(5, 10000)
+        .build());
+    Traits first = createTraits("first");
+    first.put("plan", "pro");
+    Traits second = createTraits("second");
+    second.put("plan", "free");
+    integration.identify(new IdentifyPayload.Builder().userId("first").traits(first).build());
+    integration.identify(new IdentifyPayload.Builder().userId("second").traits(second).build());
+    Mockito.clearInvocations(mAppboyUser);
+
+    integration.identify(new IdentifyPayload.Builder().userId("first").traits(first).build());
+
+    verify(mAppboy, Mockito.times(2)).changeUser("first");
+    verify(mAppboyUser, never()).setCustomUserAttribute("plan", "pro");
+  }
+
+  @Test
+  public void testCounterTraitsAreIncrementedByDelta() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .enableTraitDiffing(true)
+        .counterTraits("orders_count")
+        .build());
+    Traits traits = createTraits("userId");
+    traits.put("orders_count", 3);
+    integration.identify(getBasicIdentifyPayloadWithTraits(traits));
+    verify(mAppboyUser).setCustomUserAttribute("orders_count", 3);
+
+    traits.put("orders_count", 5);
+    integration.identify(getBasicIdentifyPayloadWithTraits(traits));
+
+    verify(mAppboyUser).incrementCustomUserAttribute("orders_count", 2);
+    verify(mAppboyUser, never()).setCustomUserAttribute("orders_count", 5);
+  }
+
+  @Test
+  public void testPushTokenIsRegisteredOnlyWhenTokenOrUserChanges() {
+    AppboyIntegrationOptions options = AppboyIntegrationOptions.builder()
+        .forwardPushTokens(true)
+        .build();
+    AppboyIntegration integration = integrationWithOptions(options);
+
+    integration.track(trackWithPushToken("userId", "token"));
+    integration.track(trackWithPushToken("userId", "token"));
+    integrationWithOptions(options).track(trackWithPushToken("userId", "token"));
+
+    verify(mAppboy).registerAppboyPushMessages("token");
+
+    integration.track(trackWithPushToken("userId", "new token"));
+    integration.identify(new IdentifyPayload.Builder()
+        .userId("other")
+        .traits(new Traits())
+        .context(pushTokenContext("new token"))
+        .build());
+
+    verify(mAppboy, Mockito.times(2)).registerAppboyPushMessages("new token");
+  }
+
+  @Test
+  public void testPushTokenIsRegisteredForTheMappedBrazeUser() {
+    UserIdMapper mapper = new UserIdMapper() {
+      @Override
+      public String transformUserId(String segmentUserId) {
+        return "mapped-" + segmentUserId;
+      }
+    };
+    AppboyIntegrationOptions options = AppboyIntegrationOptions.builder()
+        .forwardPushTokens(true)
+        .enableIdentifyCoalescing(1000)
+        .userIdMapper(mapper)
+        .build();
+    when(mAppboyUser.getUserId()).thenReturn("mapped-u1");
+    integrationWithOptions(options).track(trackWithPushToken("u1", "token"));
+    AppboyIntegration integration = integrationWithOptions(options);
+
+    integration.track(trackWithPushToken("u1", "token"));
+    integration.identify(new IdentifyPayload.Builder()
+        .userId("u2")
+        .traits(new Traits())
+        .context(pushTokenContext("token"))
+        .build());
+
+    InOrder inOrder = Mockito.inOrder(mAppboy);
+    inOrder.verify(mAppboy).registerAppboyPushMessages("token");
+    inOrder.verify(mAppboy).changeUser("mapped-u2");
+    inOrder.verify(mAppboy).registerAppboyPushMessages("token");
+    verify(mAppboy, Mockito.times(2)).registerAppboyPushMessages("token");
+  }
+
+  @Test
+  public void testPushTokenIsIgnoredWithoutForwarding() {
+    mIntegration.track(trackWithPushToken("userId", "token"));
+
+    verify(mAppboy, never()).registerAppboyPushMessages(any(String.class));
+  }
+
+  private TrackPayload trackWithPushToken(String userId, String token) {
+    return new TrackPayload.Builder()
+        .userId(userId)
+        .event("foo")
+        .context(pushTokenContext(token))
+        .build();
+  }
+
+  private static Map<String, Object> pushTokenContext(String token) {
+    return Collections.<String, Object>singletonMap("device",
+        Collections.singletonMap("token", token));
+  }
+
+  @Test
+  public void testFlushBacksOffAfterNetworkFailuresUntilFlushesSucceed() {
+    MockAppboy appboy = spy(new MockAppboy());
+    mAppboy = appboy;
+    AppboyIntegrationMetrics metrics = new AppboyIntegrationMetrics();
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .backOffFlushesOnNetworkFailure(1000, 8000)
+        .metrics(metrics)
+        .build());
+    BrazeNetworkFailureEvent failure = mock(BrazeNetworkFailureEvent.class);
+
+    appboy.emitNetworkFailure(failure);
+    integration.flush();
+    integration.flush();
+    integration.flush();
+
+    verify(appboy, never()).requestImmediateDataFlush();
+    assertEquals(1, metrics.getConsecutiveNetworkFailures());
+    assertEquals(3, metrics.getHeldBackFlushes());
+    assertTrue(metrics.getFlushBackoffMillis() >= 500 && metrics.getFlushBackoffMillis() <= 1000);
+
+    ShadowLooper.idleMainLooper(1000, TimeUnit.MILLISECONDS);
+
+    verify(appboy).requestImmediateDataFlush();
+
+    appboy.emitNetworkFailure(failure);
+
+    assertEquals(2, metrics.getNetworkFailures());
+    assertEquals(2, metrics.getConsecutiveNetworkFailures());
+    assertTrue(metrics.getFlushBackoffMillis() >= 1000 && metrics.getFlushBackoffMillis() <= 2000);
+
+    ShadowLooper.idleMainLooper(2000, TimeUnit.MILLISECONDS);
+    integration.flush();
+    ShadowLooper.idleMainLooper(2000, TimeUnit.MILLISECONDS);
+    integration.flush();
+    integration.flush();
+
+    verify(appboy, Mockito.times(4)).requestImmediateDataFlush();
+    assertEquals(0, metrics.getConsecutiveNetworkFailures());
+    assertEquals(0, metrics.getFlushBackoffMillis());
+  }
+
+  @Test
+  public void testContentRefresherDeduplicatesRefreshesDuringNavigation() {
+    AppboyContentRefresher refresher = new AppboyContentRefresher(60000, true, true);
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .sessionCloseGracePeriod(1000)
+        .contentRefresher(refresher)
+        .build());
+
+    for (int i = 0; i < 5; i++) {
+      Activity activity = mock(Activity.class);
+      integration.onActivityStarted(activity);
+      refresher.refreshContentCards();
+      integration.onActivityStopped(activity);
+    }
+
+    verify(mAppboy).requestContentCardsRefresh(false);
+    verify(mAppboy, Mockito.times(5)).requestContentCardsRefresh(true);
+    verify(mAppboy).requestFeedRefresh();
+    verify(mAppboy, never()).requestFeedRefreshFromCache();
+
+    ShadowLooper.idleMainLooper(60000, TimeUnit.MILLISECONDS);
+    integration.onActivityStarted(mock(Activity.class));
+
+    verify(mAppboy, Mockito.times(2)).requestContentCardsRefresh(false);
+    verify(mAppboy, Mockito.times(2)).requestFeedRefresh();
+  }
+
+  @Test
+  public void testContentRefresherSendsRefreshesRequestedBeforeCreation() {
+    AppboyContentRefresher refresher = new AppboyContentRefresher(60000, false, false);
+    refresher.refreshFeed();
+    refresher.refreshFeed();
+
+    integrationWithOptions(AppboyIntegrationOptions.builder()
+        .contentRefresher(refresher)
+        .build());
+
+    verify(mAppboy).requestFeedRefresh();
+    verify(mAppboy, never()).requestFeedRefreshFromCache();
+    verify(mAppboy, never()).requestContentCardsRefresh(Mockito.anyBoolean());
+  }
+
+  @Test
+  public void testTraitResyncResendsStaleTraitsWhileForegroundedAndIdle() {
+    AppboyIntegrationOptions options = AppboyIntegrationOptions.builder()
+        .enableTraitDiffing(true)
+        .enableTraitResync(TimeUnit.DAYS.toMillis(1), 1, 1000)
+        .build();
+    Traits traits = createTraits("userId");
+    traits.put("plan", "pro");
+    traits.put("seats", 4);
+    integrationWithOptions(options).identify(getBasicIdentifyPayloadWithTraits(traits));
+    getContext().getSharedPreferences("segment-braze-traits-sent-at", Context.MODE_PRIVATE)
+        .edit().putLong("plan", 0L).commit();
+    Mockito.clearInvocations(mAppboyUser);
+
+    AppboyIntegration integration = integrationWithOptions(options);
+    integration.identify(getBasicIdentifyPayloadWithTraits(traits));
+    integration.onActivityStarted(mock(Activity.class));
+    ShadowLooper.idleMainLooper(1000, TimeUnit.MILLISECONDS);
+
+    verify(mAppboyUser).setCustomUserAttribute("plan", "pro");
+    verify(mAppboyUser, never()).setCustomUserAttribute("seats", 4);
+
+    ShadowLooper.idleMainLooper(1000, TimeUnit.MILLISECONDS);
+
+    verify(mAppboyUser).setCustomUserAttribute("plan", "pro");
+  }
+
+  @Test
+  public void testTraitResyncSkipsWhileBackgrounded() {
+    AppboyIntegrationOptions options = AppboyIntegrationOptions.builder()
+        .enableTraitDiffing(true)
+        .enableTraitResync(TimeUnit.DAYS.toMillis(1), 1, 1000)
+        .build();
+    Traits traits = createTraits("userId");
+    traits.put("plan", "pro");
+    AppboyIntegration integration = integrationWithOptions(options);
+    integration.identify(getBasicIdentifyPayloadWithTraits(traits));
+    getContext().getSharedPreferences("segment-braze-traits-sent-at", Context.MODE_PRIVATE)
+        .edit().putLong("plan", 0L).commit();
+    integration = integrationWithOptions(options);
+    Mockito.clearInvocations(mAppboyUser);
+
+    Activity activity = mock(Activity.class);
+    integration.onActivityStarted(activity);
+    integration.onActivityStopped(activity);
+    ShadowLooper.idleMainLooper(2000, TimeUnit.MILLISECONDS);
+
+    verify(mAppboyUser, never()).setCustomUserAttribute("plan", "pro");
+  }
+
+  @Test
+  public void testKeyTransformRenamesAndDropsCustomAttributes() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .snakeCaseKeys(true)
+        .renameKey("planName", "tier")
+        .dropKey("internalId")
+        .build());
+    Traits traits = createTraits("userId");
+    traits.put("ordersCount", 3);
+    traits.put("planName", "pro");
+    traits.put("internalId", "abc");
+
+    integration.identify(getBasicIdentifyPayloadWithTraits(traits));
+
+    verify(mAppboyUser).setCustomUserAttribute("orders_count", 3);
+    verify(mAppboyUser).setCustomUserAttribute("tier", "pro");
+    verify(mAppboyUser, never()).setCustomUserAttribute(eq("internalId"), any(String.class));
+    verify(mAppboyUser, never()).setCustomUserAttribute(eq("internal_id"), any(String.class));
+  }
+
+  @Test
+  public void testKeyTransformAppliesSwappedRenamesToOriginalKeys() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .renameKey("a", "b")
+        .renameKey("b", "c")
+        .build());
+    Properties properties = new Properties();
+    properties.putValue("a", "first");
+    properties.putValue("b", "second");
+
+    integration.track(getBasicTrackPayloadWithEventAndProps("Renamed", properties));
+
+    ArgumentCaptor<AppboyProperties> captor = ArgumentCaptor.forClass(AppboyProperties.class);
+    verify(mAppboy).logCustomEvent(eq("Renamed"), captor.capture());
+    JSONObject json = captor.getValue().forJsonPut();
+    assertEquals(2, json.length());
+    assertEquals("first", json.optString("b"));
+    assertEquals("second", json.optString("c"));
+  }
+
+  @Test
+  public void testSnakeCaseKeyCollisionSendsLaterKey() {
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .snakeCaseKeys(true)
+        .build());
+    Properties properties = new Properties();
+    properties.putValue("orderId", "first");
+    properties.putValue("order_id", "second");
+    properties.putRevenue(10.0d);
+
+    integration.track(getBasicTrackPayloadWithEventAndProps("Order Completed", properties));
+
+    ArgumentCaptor<AppboyProperties> captor = ArgumentCaptor.forClass(AppboyProperties.class);
+    verify(mAppboy).logPurchase(eq("Order Completed"), eq("USD"), eq(new BigDecimal("10.0")),
+        captor.capture());
+    JSONObject json = captor.getValue().forJsonPut();
+    assertEquals(1, json.length());
+    assertEquals("second", json.optString("order_id"));
+  }
+
+  @Test
+  public void testInstallAttributedSetsAttributionData() {
+    Properties properties = new Properties();
+    properties.putValue("campaign", new ValueMap()
+        .putValue("source", "Network")
+        .putValue("name", "Campaign")
+        .putValue("ad_group", "Group")
+        .putValue("ad_creative", "Creative")
+        .putValue("content", "Banner"));
+    mIntegration.track(getBasicTrackPayloadWithEventAndProps("Install Attributed", properties));
+    verify(mAppboy).getCurrentUser();
+    verify(mAppboyUser).setAttributionData(any(AttributionData.class));
+    verify(mAppboyUser).setCustomUserAttribute("campaign_content", "Banner");
+    verifyNoMoreAppboyInteractions();
+  }
+
+  @Test
+  public void testInstallAttributedAcceptsJsonStringCampaign() {
+    Properties properties = new Properties();
+    properties.putValue("campaign", "{\"source\":\"Network\",\"name\":\"Campaign\"}");
+    mIntegration.track(getBasicTrackPayloadWithEventAndProps("Install Attributed", properties));
+    verify(mAppboy).getCurrentUser();
+    verify(mAppboyUser).setAttributionData(any(AttributionData.class));
+    verifyNoMoreInteractions(mAppboyUser);
+    verifyNoMoreAppboyInteractions();
+  }
+
+  @Test
+  public void testInstallAttributedWithMalformedCampaignIsDropped() {
+    Properties properties = new Properties();
+    properties.putValue("campaign", "{not json");
+    mIntegration.track(getBasicTrackPayloadWithEventAndProps("Install Attributed", properties));
+    properties.putValue("campaign", 42);
+    mIntegration.track(getBasicTrackPayloadWithEventAndProps("Install Attributed", properties));
+    verifyNoMoreAppboyInteractions();
+  }
+
+  @Test
+  public void testTracerWrapsTrackAndPurchaseSections() {
+    Tracer tracer = mock(Tracer.class);
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .tracer(tracer)
+        .build());
+    Properties properties = new Properties();
+    properties.putRevenue(10.0d);
+    integration.track(getBasicTrackPayloadWithEventAndProps("revenueEvent", properties));
+
+    InOrder inOrder = Mockito.inOrder(tracer, mAppboy);
+    inOrder.verify(tracer).beginSection("Braze.track");
+    inOrder.verify(tracer).beginSection("Braze.logPurchase");
+    inOrder.verify(mAppboy).logPurchase("revenueEvent", "USD", new BigDecimal("10.0"));
+    inOrder.verify(tracer, Mockito.times(2)).endSection();
+  }
+
+  @Test
+  public void testMainThreadBudgetReportsLifecycleCallbackWithPhase() {
+    MainThreadBudgetListener listener = mock(MainThreadBudgetListener.class);
+    AppboyIntegration integration = integrationWithOptions(AppboyIntegrationOptions.builder()
+        .mainThreadBudget(0, listener)
+        .build());
+
+    integration.onActivityStarted(mock(Activity.class));
+
+    verify(listener).onBudgetExceeded(eq("Braze.onActivityStarted"), anyLong(),
+        eq("Braze.openSession"), anyLong());
+    verifyNoMoreInteractions(listener);
+  }
+
+  private AppboyIntegration integrationWithOptions(AppboyIntegrationOptions options) {
+    return new AppboyIntegration(getContext(), mAppboy, "foo",
+        Logger.with(Analytics.LogLevel.DEBUG), true, options);
+  }
+
   private void verifyNoMoreAppboyInteractions() {
     verifyNoMoreInteractions(mAppboy);
   }
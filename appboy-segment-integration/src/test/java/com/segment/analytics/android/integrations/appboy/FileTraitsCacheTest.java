@@ -0,0 +1,110 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import com.segment.analytics.Traits;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static com.segment.analytics.Utils.createTraits;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class FileTraitsCacheTest {
+  private File mFile;
+
+  @Before
+  public void setUp() {
+    Context context = ApplicationProvider.getApplicationContext();
+    mFile = new File(context.getFilesDir(), FileTraitsCache.FILENAME);
+    mFile.delete();
+  }
+
+  @Test
+  public void otherProcessSeesSavedTraits() {
+    new FileTraitsCache(mFile).save(traits("red"));
+
+    assertEquals("red", new FileTraitsCache(mFile).load().getString("color"));
+  }
+
+  @Test
+  public void reloadsOnlyAfterAnotherProcessWrote() {
+    FileTraitsCache first = new FileTraitsCache(mFile);
+    FileTraitsCache second = new FileTraitsCache(mFile);
+    first.save(traits("red"));
+    Traits loaded = second.load();
+
+    assertSame(loaded, second.load());
+
+    first.save(traits("blue"));
+
+    assertEquals("blue", second.load().getString("color"));
+  }
+
+  @Test
+  public void switchUserClearsForEveryProcess() {
+    FileTraitsCache first = new FileTraitsCache(mFile);
+    FileTraitsCache second = new FileTraitsCache(mFile);
+    first.save(traits("red"));
+    second.load();
+
+    first.switchUser("other");
+
+    assertTrue(second.load().isEmpty());
+  }
+
+  @Test
+  public void instancesInOneProcessCanShareTheFileConcurrently() throws InterruptedException {
+    final FileTraitsCache first = new FileTraitsCache(mFile);
+    final FileTraitsCache second = new FileTraitsCache(mFile);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread[] threads = new Thread[2];
+    for (int i = 0; i < threads.length; i++) {
+      final FileTraitsCache cache = i == 0 ? first : second;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 200; j++) {
+              cache.save(traits("red"));
+              cache.load();
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertNull(failure.get());
+    assertEquals("red", new FileTraitsCache(mFile).load().getString("color"));
+  }
+
+  @Test
+  public void corruptFileLoadsAsEmpty() throws IOException {
+    FileOutputStream out = new FileOutputStream(mFile);
+    out.write(new byte[] {0, 0, 0, 0, 0, 0, 0, 1, '{', 'x'});
+    out.close();
+
+    assertTrue(new FileTraitsCache(mFile).load().isEmpty());
+  }
+
+  private static Traits traits(String color) {
+    Traits traits = createTraits("user");
+    traits.put("color", color);
+    return traits;
+  }
+}
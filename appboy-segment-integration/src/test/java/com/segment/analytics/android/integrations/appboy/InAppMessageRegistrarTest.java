@@ -0,0 +1,131 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.app.Activity;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.LEGACY)
+public class InAppMessageRegistrarTest {
+  private InAppMessageRegistrar.Manager mManager;
+
+  @Before
+  public void setUp() {
+    mManager = mock(InAppMessageRegistrar.Manager.class);
+  }
+
+  @Test
+  public void registersEveryActivityByDefault() {
+    InAppMessageRegistrar registrar = registrar(none(), none(), 0);
+    Activity activity = mock(Activity.class);
+    registrar.onActivityResumed(activity);
+    registrar.onActivityPaused(activity);
+    verify(mManager).register(activity);
+    verify(mManager).unregister(activity);
+    verifyNoMoreInteractions(mManager);
+  }
+
+  @Test
+  public void skipsAnnotatedActivities() {
+    InAppMessageRegistrar registrar = registrar(none(), none(), 0);
+    Activity splash = mock(SplashActivity.class);
+    registrar.onActivityResumed(splash);
+    registrar.onActivityPaused(splash);
+    verifyNoMoreInteractions(mManager);
+  }
+
+  @Test
+  public void skipsExcludedActivities() {
+    InAppMessageRegistrar registrar = registrar(none(), classes(CheckoutActivity.class), 0);
+    Activity checkout = mock(CheckoutActivity.class);
+    Activity other = mock(Activity.class);
+    registrar.onActivityResumed(checkout);
+    registrar.onActivityResumed(other);
+    verify(mManager).register(other);
+    verifyNoMoreInteractions(mManager);
+  }
+
+  @Test
+  public void onlyRegistersAllowedActivities() {
+    InAppMessageRegistrar registrar = registrar(classes(CheckoutActivity.class), none(), 0);
+    Activity checkout = mock(CheckoutActivity.class);
+    Activity other = mock(Activity.class);
+    registrar.onActivityResumed(checkout);
+    registrar.onActivityResumed(other);
+    verify(mManager).register(checkout);
+    verifyNoMoreInteractions(mManager);
+  }
+
+  @Test
+  public void quickPauseAndResumeKeepsActivityRegistered() {
+    InAppMessageRegistrar registrar = registrar(none(), none(), 500);
+    Activity activity = mock(Activity.class);
+    registrar.onActivityResumed(activity);
+    registrar.onActivityPaused(activity);
+    registrar.onActivityResumed(activity);
+    ShadowLooper.idleMainLooper(1000, TimeUnit.MILLISECONDS);
+    verify(mManager).register(activity);
+    verifyNoMoreInteractions(mManager);
+  }
+
+  @Test
+  public void delayedUnregisterRunsWhenActivityDoesNotResume() {
+    InAppMessageRegistrar registrar = registrar(none(), none(), 500);
+    Activity activity = mock(Activity.class);
+    registrar.onActivityResumed(activity);
+    registrar.onActivityPaused(activity);
+    ShadowLooper.idleMainLooper(500, TimeUnit.MILLISECONDS);
+    verify(mManager).register(activity);
+    verify(mManager).unregister(activity);
+    verifyNoMoreInteractions(mManager);
+  }
+
+  @Test
+  public void resumingAnotherActivityUnregistersThePausedOneFirst() {
+    InAppMessageRegistrar registrar = registrar(none(), none(), 500);
+    Activity first = mock(Activity.class);
+    Activity second = mock(Activity.class);
+    registrar.onActivityResumed(first);
+    registrar.onActivityPaused(first);
+    registrar.onActivityResumed(second);
+    verify(mManager).register(first);
+    verify(mManager).unregister(first);
+    verify(mManager).register(second);
+    verifyNoMoreInteractions(mManager);
+  }
+
+  private InAppMessageRegistrar registrar(Set<Class<? extends Activity>> allowlist,
+      Set<Class<? extends Activity>> denylist, long unregisterDelayMillis) {
+    return new InAppMessageRegistrar(mManager, new HandlerTaskScheduler(), allowlist, denylist,
+        unregisterDelayMillis, Tracer.NONE);
+  }
+
+  private static Set<Class<? extends Activity>> none() {
+    return Collections.emptySet();
+  }
+
+  @SafeVarargs
+  private static Set<Class<? extends Activity>> classes(Class<? extends Activity>... classes) {
+    return new LinkedHashSet<>(Arrays.asList(classes));
+  }
+
+  @SkipInAppMessageRegistration
+  public static class SplashActivity extends Activity {
+  }
+
+  public static class CheckoutActivity extends Activity {
+  }
+}
@@ -20,4 +20,9 @@ public class InMemoryTraitsCache implements TraitsCache {
   public void clear() {
     traits = new Traits();
   }
+
+  @Override
+  public void switchUser(String userId) {
+    clear();
+  }
 }
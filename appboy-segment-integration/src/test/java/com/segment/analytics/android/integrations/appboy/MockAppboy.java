@@ -26,6 +26,8 @@ import java.math.BigDecimal;
 import java.util.List;
 
 public class MockAppboy implements IAppboy {
+  private IEventSubscriber<BrazeNetworkFailureEvent> networkFailureSubscriber;
+
   @Override
   public void openSession(Activity activity) {
 
@@ -138,7 +140,12 @@ public class MockAppboy implements IAppboy {
 
   @Override
   public void subscribeToNetworkFailures(IEventSubscriber<BrazeNetworkFailureEvent> iEventSubscriber) {
+    networkFailureSubscriber = iEventSubscriber;
+  }
 
+  /** Reports a network failure to the subscriber, like the SDK does after a failed request. */
+  void emitNetworkFailure(BrazeNetworkFailureEvent event) {
+    networkFailureSubscriber.trigger(event);
   }
 
   @Override
@@ -0,0 +1,115 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import com.segment.analytics.Traits;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static android.content.Context.MODE_PRIVATE;
+import static com.segment.analytics.Utils.createTraits;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PartitionedTraitsCacheTest {
+  private Context mContext;
+
+  @Before
+  public void setUp() {
+    mContext = ApplicationProvider.getApplicationContext();
+  }
+
+  @Test
+  public void switchingBackRestoresPreviousUsersTraits() {
+    PartitionedTraitsCache cache = newCache(5, 10000);
+    cache.switchUser("a");
+    cache.save(traits("a", "red"));
+    cache.switchUser("b");
+    cache.save(traits("b", "blue"));
+
+    cache.switchUser("a");
+
+    assertEquals("red", cache.load().getString("color"));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedUserOverCapacity() {
+    PartitionedTraitsCache cache = newCache(2, 10000);
+    cache.switchUser("a");
+    cache.save(traits("a", "red"));
+    cache.switchUser("b");
+    cache.save(traits("b", "blue"));
+    cache.switchUser("a");
+    cache.switchUser("c");
+    cache.save(traits("c", "green"));
+
+    cache.switchUser("b");
+    assertTrue(cache.load().isEmpty());
+    cache.switchUser("a");
+    assertEquals("red", cache.load().getString("color"));
+  }
+
+  @Test
+  public void evictsOtherUsersOverByteBudgetButKeepsCurrentOne() {
+    PartitionedTraitsCache cache = newCache(5, 60);
+    cache.switchUser("a");
+    cache.save(traits("a", "red"));
+    cache.switchUser("b");
+    cache.save(traits("b", "a very long favourite color name"));
+
+    assertEquals("b", cache.load().userId());
+    cache.switchUser("a");
+    assertTrue(cache.load().isEmpty());
+  }
+
+  @Test
+  public void partitionsSurviveRestart() {
+    PartitionedTraitsCache cache = newCache(5, 10000);
+    cache.switchUser("a");
+    cache.save(traits("a", "red"));
+    cache.switchUser("b");
+    cache.save(traits("b", "blue"));
+
+    PartitionedTraitsCache restored = newCache(5, 10000);
+    assertEquals("blue", restored.load().getString("color"));
+    restored.switchUser("a");
+    assertEquals("red", restored.load().getString("color"));
+  }
+
+  @Test
+  public void resetSelectsEmptyAnonymousPartition() {
+    PartitionedTraitsCache cache = newCache(5, 10000);
+    cache.switchUser("a");
+    cache.save(traits("a", "red"));
+
+    cache.switchUser(null);
+
+    assertTrue(cache.load().isEmpty());
+  }
+
+  @Test
+  public void migratesLegacySingleUserCache() {
+    new PreferencesTraitsCache(mContext).save(traits("a", "red"));
+
+    PartitionedTraitsCache cache = newCache(5, 10000);
+
+    assertEquals("a", cache.load().userId());
+    assertEquals("red", cache.load().getString("color"));
+    assertTrue(mContext.getSharedPreferences("segment-braze-traits-cache", MODE_PRIVATE)
+        .getAll().isEmpty());
+  }
+
+  private PartitionedTraitsCache newCache(int userCapacity, long byteBudget) {
+    return new PartitionedTraitsCache(mContext, new DefaultUserIdMapper(), userCapacity,
+        byteBudget);
+  }
+
+  private static Traits traits(String userId, String color) {
+    Traits traits = createTraits(userId);
+    traits.put("color", color);
+    return traits;
+  }
+}
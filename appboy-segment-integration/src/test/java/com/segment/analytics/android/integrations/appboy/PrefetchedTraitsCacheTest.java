@@ -0,0 +1,69 @@
+package com.segment.analytics.android.integrations.appboy;
+
+import com.segment.analytics.Traits;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static com.segment.analytics.Utils.createTraits;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PrefetchedTraitsCacheTest {
+
+  @Test
+  public void createsAndLoadsCacheOffCallingThread() {
+    final AtomicReference<Thread> loadingThread = new AtomicReference<>();
+    final InMemoryTraitsCache delegate = new InMemoryTraitsCache();
+    Traits traits = createTraits("userId");
+    delegate.save(traits);
+
+    PrefetchedTraitsCache cache = new PrefetchedTraitsCache(new Callable<TraitsCache>() {
+      @Override
+      public TraitsCache call() {
+        loadingThread.set(Thread.currentThread());
+        return delegate;
+      }
+    }, Tracer.NONE);
+
+    assertSame(traits, cache.load());
+    assertNotSame(Thread.currentThread(), loadingThread.get());
+  }
+
+  @Test
+  public void callsBeforePrefetchCompletesWaitForIt() throws InterruptedException {
+    final CountDownLatch release = new CountDownLatch(1);
+    final InMemoryTraitsCache delegate = new InMemoryTraitsCache();
+    final PrefetchedTraitsCache cache = new PrefetchedTraitsCache(new Callable<TraitsCache>() {
+      @Override
+      public TraitsCache call() throws InterruptedException {
+        release.await();
+        return delegate;
+      }
+    }, Tracer.NONE);
+
+    Thread saving = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        cache.save(createTraits("userId"));
+      }
+    });
+    saving.start();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (saving.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+
+    assertEquals(Thread.State.WAITING, saving.getState());
+    assertNull(delegate.load().userId());
+
+    release.countDown();
+    saving.join();
+
+    assertEquals("userId", delegate.load().userId());
+    assertEquals("userId", cache.load().userId());
+  }
+}